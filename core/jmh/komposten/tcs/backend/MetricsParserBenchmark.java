@@ -0,0 +1,106 @@
+/*
+ * Copyright 2019 Jakob Hjelm
+ * 
+ * This file is part of TetraColourSpace.
+ * 
+ * TetraColourSpace is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package komposten.tcs.backend;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import komposten.utilities.tools.MathOps;
+import komposten.utilities.tools.Regex;
+
+/**
+ * Compares {@link MetricsParser} with the regex-based parsing in
+ * {@link GraphLoader} on position strings formatted like those written by
+ * <code>tcs_plot.R</code>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsParserBenchmark
+{
+	private static final int LINE_COUNT = 1024;
+	
+	private String[] lines;
+	private MetricsParser parser;
+	private float[] output;
+	
+	
+	@Setup
+	public void setup()
+	{
+		Random random = new Random(1);
+		lines = new String[LINE_COUNT];
+		
+		for (int i = 0; i < LINE_COUNT; i++)
+		{
+			double theta = random.nextDouble() * 2 * Math.PI - Math.PI;
+			double phi = random.nextDouble() * Math.PI - Math.PI/2;
+			double magnitude = random.nextDouble() * 0.5;
+			lines[i] = String.format(Locale.ROOT, "%.15g,%.15g,%.15g", theta, phi, magnitude);
+		}
+		
+		parser = new MetricsParser();
+		output = new float[3];
+	}
+	
+	
+	@Benchmark
+	@OperationsPerInvocation(LINE_COUNT)
+	public void regex(Blackhole blackhole)
+	{
+		for (String line : lines)
+		{
+			String[] values = Regex.getMatches(MathOps.doubleRegex, line);
+			blackhole.consume(Float.parseFloat(values[0]));
+			blackhole.consume(Float.parseFloat(values[1]));
+			blackhole.consume(Float.parseFloat(values[2]));
+		}
+	}
+	
+	
+	@Benchmark
+	@OperationsPerInvocation(LINE_COUNT)
+	public void metricsParser(Blackhole blackhole)
+	{
+		for (String line : lines)
+		{
+			blackhole.consume(parser.parse(line, output));
+			blackhole.consume(output[0]);
+			blackhole.consume(output[1]);
+			blackhole.consume(output[2]);
+		}
+	}
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2019 Jakob Hjelm
+ * 
+ * This file is part of TetraColourSpace.
+ * 
+ * TetraColourSpace is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package komposten.tcs.rendering;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.IntBuffer;
+
+import com.badlogic.gdx.Application;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.Graphics;
+import com.badlogic.gdx.backends.headless.HeadlessFiles;
+import com.badlogic.gdx.graphics.GL30;
+import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+import com.badlogic.gdx.utils.GdxNativesLoader;
+
+/**
+ * An OpenGL implementation that does not draw anything, but counts the draw
+ * calls. Shaders always compile, and all generated
+ * names are non-zero.
+ * <br />
+ * {@link #install(boolean)} sets up just enough of libGDX (files, graphics and
+ * application) to create and render meshes through a <code>ModelBatch</code>
+ * without a window.
+ */
+class CountingGL implements InvocationHandler
+{
+	private static final int VIEWPORT_SIZE = 1000;
+	
+	private final GL30 gl;
+	private int drawCalls;
+	
+	
+	private CountingGL()
+	{
+		gl = (GL30) Proxy.newProxyInstance(GL30.class.getClassLoader(), new Class<?>[] { GL30.class }, this);
+	}
+	
+	
+	/**
+	 * Makes a new counting GL the current one.
+	 * @param gl30 If <code>true</code> the GL is also installed as
+	 *          <code>Gdx.gl30</code>, which makes the fast render mode use
+	 *          {@link IntIndexedMesh IntIndexedMeshes}.
+	 */
+	static CountingGL install(boolean gl30)
+	{
+		GdxNativesLoader.load();
+		ShaderProgram.pedantic = false;
+		
+		CountingGL counter = new CountingGL();
+		Gdx.files = new HeadlessFiles();
+		Gdx.app = createDefault(Application.class);
+		Gdx.graphics = createDefault(Graphics.class);
+		Gdx.gl = Gdx.gl20 = counter.gl;
+		Gdx.gl30 = (gl30 ? counter.gl : null);
+		return counter;
+	}
+	
+	
+	int getDrawCalls()
+	{
+		return drawCalls;
+	}
+	
+	
+	void reset()
+	{
+		drawCalls = 0;
+	}
+	
+	
+	@Override
+	public Object invoke(Object proxy, Method method, Object[] args)
+	{
+		switch (method.getName())
+		{
+			case "glDrawElements" :
+			case "glDrawArrays" :
+			case "glDrawElementsInstanced" :
+			case "glDrawArraysInstanced" :
+				drawCalls++;
+				break;
+			case "glGetShaderiv" :
+			case "glGetProgramiv" :
+				((IntBuffer) args[2]).put(0, 1);
+				break;
+			case "glGetIntegerv" :
+				IntBuffer values = (IntBuffer) args[1];
+				for (int i = 0; i < values.limit(); i++)
+					values.put(i, VIEWPORT_SIZE);
+				break;
+			case "glGenVertexArrays" :
+			case "glGenBuffers" :
+				if (args[1] instanceof IntBuffer)
+				{
+					IntBuffer names = (IntBuffer) args[1];
+					for (int i = 0; i < names.limit(); i++)
+						names.put(i, 1);
+				}
+				break;
+			default :
+				break;
+		}
+		
+		return getDefault(method.getReturnType());
+	}
+	
+	
+	@SuppressWarnings("unchecked")
+	private static <T> T createDefault(Class<T> type)
+	{
+		return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type },
+				(proxy, method, args) -> getDefault(method.getReturnType()));
+	}
+	
+	
+	private static Object getDefault(Class<?> type)
+	{
+		if (type == int.class)
+			return 1;
+		else if (type == long.class)
+			return 0L;
+		else if (type == float.class)
+			return 0f;
+		else if (type == boolean.class)
+			return false;
+		else if (type == String.class)
+			return "";
+		else
+			return null;
+	}
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2019 Jakob Hjelm
+ * 
+ * This file is part of TetraColourSpace.
+ * 
+ * TetraColourSpace is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package komposten.tcs.rendering;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.PerspectiveCamera;
+import com.badlogic.gdx.graphics.g3d.Environment;
+import com.badlogic.gdx.graphics.g3d.ModelBatch;
+import com.badlogic.gdx.graphics.g3d.attributes.ColorAttribute;
+import com.badlogic.gdx.math.Vector3;
+
+import komposten.tcs.backend.data.PointGroup;
+import komposten.tcs.backend.data.PointStore;
+import komposten.tcs.backend.data.Shape;
+import komposten.tcs.util.TCSUtils;
+
+/**
+ * Counts the draw calls made when rendering one group of spheres in the fast
+ * render mode ({@link PointGroupRenderable.MeshPerGroup}), with 16-bit indices
+ * (<code>indices=short</code>, OpenGL 2) and 32-bit indices
+ * (<code>indices=int</code>, OpenGL 3). The camera is either close to the
+ * points (<code>distance=0.3</code>) or sees all of them from far away
+ * (<code>distance=3</code>).
+ * <br />
+ * OpenGL is replaced by {@link CountingGL}, so the time only covers the work
+ * done on the CPU. The number of meshes and the number of draw calls per
+ * frame are printed when each trial ends. Run it with
+ * <code>gradlew core:jmh -Pjmh.args=MeshDrawCallBenchmark</code>.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class MeshDrawCallBenchmark
+{
+	private static final int POINT_COUNT = 20000;
+	private static final float POINT_SIZE = 0.02f;
+	private static final int SPHERE_SEGMENTS = 25;
+	
+	@Param({ "short", "int" })
+	public String indices;
+	
+	@Param({ "0.3", "3" })
+	public float distance;
+	
+	private CountingGL gl;
+	private PointGroupRenderable.MeshPerGroup renderable;
+	private ModelBatch batch;
+	private PerspectiveCamera camera;
+	private int meshCount;
+	private int drawCalls;
+	
+	
+	@Setup
+	public void setup()
+	{
+		gl = CountingGL.install(indices.equals("int"));
+		
+		Environment environment = new Environment();
+		environment.set(new ColorAttribute(ColorAttribute.AmbientLight, 0.6f, 0.6f, 0.6f, 1f));
+		
+		renderable = new PointGroupRenderable.MeshPerGroup(createGroup(), SPHERE_SEGMENTS, environment);
+		renderable.prepare();
+		renderable.upload();
+		meshCount = renderable.getMeshCount();
+		
+		batch = new ModelBatch();
+		camera = new PerspectiveCamera(67, 1.6f, 1);
+		camera.position.set(0, 0, distance);
+		camera.lookAt(0, 0, 0);
+		camera.near = 0.01f;
+		camera.update();
+	}
+	
+	
+	/**
+	 * Creates a group of points spread evenly in a sphere around the origin, the
+	 * way a tetrachromatic colour space is filled by a large data set.
+	 */
+	private static PointGroup createGroup()
+	{
+		Random random = new Random(1);
+		PointStore store = new PointStore(POINT_COUNT);
+		int colour = Color.rgba8888(Color.WHITE);
+		
+		for (int i = 0; i < POINT_COUNT; i++)
+		{
+			float theta = (float) (random.nextDouble() * 2 * Math.PI - Math.PI);
+			float phi = (float) Math.asin(random.nextDouble() * 2 - 1);
+			float magnitude = (float) (Math.cbrt(random.nextDouble()) * 0.5);
+			Vector3 coordinates = TCSUtils.getCoordinatesForMetrics(theta, phi, magnitude);
+			
+			store.add("Point " + i, coordinates.x, coordinates.y, coordinates.z, theta, phi, magnitude, colour);
+		}
+		
+		return new PointGroup("Points", store, Shape.SPHERE, POINT_SIZE);
+	}
+	
+	
+	@TearDown
+	public void tearDown()
+	{
+		System.out.format("%n%s indices, distance %s: %d meshes, %d draw calls per frame%n", indices, distance,
+				meshCount, drawCalls);
+		
+		batch.dispose();
+		renderable.dispose();
+	}
+	
+	
+	@Benchmark
+	public void render()
+	{
+		gl.reset();
+		
+		batch.begin(camera);
+		renderable.render(batch);
+		batch.end();
+		
+		drawCalls = gl.getDrawCalls();
+	}
+}
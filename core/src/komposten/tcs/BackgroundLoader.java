@@ -0,0 +1,294 @@
+/*
+ * Copyright 2019 Jakob Hjelm
+ * 
+ * This file is part of TetraColourSpace.
+ * 
+ * TetraColourSpace is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package komposten.tcs;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.utils.Disposable;
+
+import komposten.tcs.backend.Backend;
+import komposten.tcs.backend.ParseException;
+import komposten.tcs.rendering.PointGroupRenderable;
+import komposten.tcs.rendering.World;
+import komposten.utilities.logging.Level;
+import komposten.utilities.logging.Logger;
+
+/**
+ * Loads data files and generates the point meshes on a background thread, so
+ * the rendering thread is not blocked while loading.
+ * <br />
+ * All methods must be called on the rendering thread, which is also where the
+ * {@link LoadListener} is notified.
+ */
+public class BackgroundLoader implements Disposable
+{
+	public interface LoadListener
+	{
+		/**
+		 * Called when the data file has been loaded.
+		 */
+		void onDataLoaded(Backend backend);
+		
+		/**
+		 * Called if the data file or the point data could not be loaded.
+		 */
+		void onLoadFailed(Exception exception);
+		
+		/**
+		 * Called when the data file has been loaded again after a call to
+		 * {@link BackgroundLoader#reloadData(File)}.
+		 */
+		void onDataReloaded(Backend backend);
+		
+		/**
+		 * Called if the data file could not be loaded again, in which case the
+		 * previous data is still valid. Also called if the points of a changed
+		 * group could not be generated after a reload, in which case that group
+		 * is not shown.
+		 */
+		void onReloadFailed(Exception exception);
+	}
+	
+	
+	private enum State
+	{
+		LOADING_FILE,
+		LOADING_POINTS,
+		DONE
+	}
+	
+	private Logger logger;
+	private LoadListener listener;
+	private ExecutorService executor;
+	
+	private State state;
+	private volatile float fileProgress;
+	private int groupCount;
+	private int groupsLoaded;
+	
+	
+	public BackgroundLoader(Logger logger, LoadListener listener)
+	{
+		this.logger = logger;
+		this.listener = listener;
+		this.executor = Executors.newSingleThreadExecutor(runnable ->
+		{
+			Thread thread = new Thread(runnable, "Background loader");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+	
+	
+	/**
+	 * Loads <code>dataFile</code> in the background.
+	 * {@link LoadListener#onDataLoaded(Backend)} is called when done.
+	 */
+	public void loadData(File dataFile)
+	{
+		state = State.LOADING_FILE;
+		fileProgress = 0;
+		
+		executor.execute(() ->
+		{
+			try
+			{
+				Backend backend = new Backend(dataFile, logger, progress -> fileProgress = (float) progress);
+				Gdx.app.postRunnable(() -> listener.onDataLoaded(backend));
+			}
+			catch (IOException | ParserConfigurationException | ParseException e)
+			{
+				// Already logged by the backend.
+				Gdx.app.postRunnable(() -> listener.onLoadFailed(e));
+			}
+			catch (RuntimeException e)
+			{
+				logFailure("Error loading data file: " + dataFile.getPath(), e);
+			}
+		});
+	}
+	
+	
+	/**
+	 * Loads <code>dataFile</code> again in the background.
+	 * {@link LoadListener#onDataReloaded(Backend)} is called when done.
+	 * <br />
+	 * Unlike {@link #loadData(File)}, a failed reload is not fatal since the
+	 * previously loaded data can still be shown.
+	 */
+	public void reloadData(File dataFile)
+	{
+		state = State.LOADING_FILE;
+		fileProgress = 0;
+		
+		executor.execute(() ->
+		{
+			try
+			{
+				Backend backend = new Backend(dataFile, logger, progress -> fileProgress = (float) progress);
+				Gdx.app.postRunnable(() -> listener.onDataReloaded(backend));
+			}
+			catch (IOException | ParserConfigurationException | ParseException | RuntimeException e)
+			{
+				if (e instanceof RuntimeException)
+					logger.log(Level.ERROR, getClass().getSimpleName(), "Error reloading data file: " + dataFile.getPath(), e, false);
+				
+				Gdx.app.postRunnable(() ->
+				{
+					state = State.DONE;
+					listener.onReloadFailed(e);
+				});
+			}
+		});
+	}
+	
+	
+	/**
+	 * Generates the data for <code>world</code>'s pending point groups in the
+	 * background. Each group is shown as soon as it is ready.
+	 */
+	public void loadPointGroups(World world)
+	{
+		loadPointGroups(world, false);
+	}
+	
+	
+	/**
+	 * Like {@link #loadPointGroups(World)}, but for the groups that changed when
+	 * the data file was reloaded. A group that fails is discarded and reported
+	 * through {@link LoadListener#onReloadFailed(Exception)}, and the other
+	 * groups are still loaded.
+	 */
+	public void reloadPointGroups(World world)
+	{
+		loadPointGroups(world, true);
+	}
+	
+	
+	private void loadPointGroups(World world, boolean reload)
+	{
+		List<PointGroupRenderable> groups = world.getPendingPointGroups();
+		
+		state = (groups.isEmpty() ? State.DONE : State.LOADING_POINTS);
+		groupCount = groups.size();
+		groupsLoaded = 0;
+		
+		for (PointGroupRenderable group : groups)
+		{
+			executor.execute(() ->
+			{
+				try
+				{
+					group.prepare();
+					Gdx.app.postRunnable(() -> groupLoaded(world, group));
+				}
+				catch (RuntimeException e)
+				{
+					String message = "Error generating points for group: " + group.getGroup().getName();
+					if (reload)
+						reloadFailure(world, group, message, e);
+					else
+						logFailure(message, e);
+				}
+			});
+		}
+	}
+	
+	
+	private void groupLoaded(World world, PointGroupRenderable group)
+	{
+		world.showPointGroup(group);
+		groupDone();
+	}
+	
+	
+	private void groupDone()
+	{
+		if (++groupsLoaded == groupCount)
+			state = State.DONE;
+	}
+	
+	
+	private void reloadFailure(World world, PointGroupRenderable group, String message, RuntimeException exception)
+	{
+		logger.log(Level.ERROR, getClass().getSimpleName(), message, exception, false);
+		Gdx.app.postRunnable(() ->
+		{
+			world.discardPointGroup(group);
+			groupDone();
+			listener.onReloadFailed(exception);
+		});
+	}
+	
+	
+	private void logFailure(String message, RuntimeException exception)
+	{
+		logger.log(Level.FATAL, getClass().getSimpleName(), message, exception, false);
+		executor.shutdownNow();
+		Gdx.app.postRunnable(() -> listener.onLoadFailed(exception));
+	}
+	
+	
+	public boolean isLoading()
+	{
+		return state != State.DONE;
+	}
+	
+	
+	/**
+	 * @return The progress (0-1) of the current loading step.
+	 */
+	public float getProgress()
+	{
+		if (state == State.LOADING_FILE)
+			return fileProgress;
+		else if (state == State.LOADING_POINTS)
+			return groupsLoaded / (float)groupCount;
+		else
+			return 1;
+	}
+	
+	
+	/**
+	 * @return A description of the current loading step.
+	 */
+	public String getStatusText()
+	{
+		if (state == State.LOADING_FILE)
+			return String.format("Loading data file... %d%%", (int) (fileProgress * 100));
+		else if (state == State.LOADING_POINTS)
+			return String.format("Generating points... %d/%d groups", groupsLoaded, groupCount);
+		else
+			return "";
+	}
+	
+	
+	@Override
+	public void dispose()
+	{
+		executor.shutdownNow();
+	}
+}
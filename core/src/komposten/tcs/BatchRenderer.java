@@ -0,0 +1,191 @@
+/*
+ * Copyright 2019 Jakob Hjelm
+ * 
+ * This file is part of TetraColourSpace.
+ * 
+ * TetraColourSpace is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package komposten.tcs;
+
+import java.io.File;
+import java.util.List;
+
+import com.badlogic.gdx.ApplicationAdapter;
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.PerspectiveCamera;
+import com.badlogic.gdx.graphics.g3d.ModelBatch;
+
+import komposten.tcs.backend.Backend;
+import komposten.tcs.backend.Style.Colour;
+import komposten.tcs.input.CameraController;
+import komposten.tcs.rendering.ScreenshotRenderer;
+import komposten.tcs.rendering.World;
+import komposten.utilities.logging.Level;
+import komposten.utilities.logging.Logger;
+import komposten.utilities.tools.FileOperations;
+
+/**
+ * Renders images of a number of data files from one or more camera presets,
+ * without any user interaction. The application exits when all files have
+ * been rendered, with the status <code>0</code> if all of them were rendered
+ * successfully and <code>1</code> otherwise.
+ * <br />
+ * One file is rendered per frame. The model batch and the screenshot frame
+ * buffer are shared by all files. The images are saved as
+ * <code>&lt;name&gt;_&lt;preset&gt;.png</code> in the output directory.
+ */
+public class BatchRenderer extends ApplicationAdapter
+{
+	private final List<File> dataFiles;
+	private final File outputPath;
+	private final int[] presets;
+	private final int width;
+	private final int height;
+	private final int supersample;
+	
+	private Logger logger;
+	private PerspectiveCamera camera;
+	private ModelBatch batch;
+	private ScreenshotRenderer screenshotRenderer;
+	
+	private int nextFile;
+	private int failures;
+	
+	
+	/**
+	 * @param presets The camera presets to render each file from (see
+	 *          {@link CameraController#applyPreset(com.badlogic.gdx.graphics.Camera, int)}).
+	 * @param width The width of the images.
+	 * @param height The height of the images.
+	 * @param supersample The supersampling factor (see
+	 *          {@link ScreenshotRenderer#ScreenshotRenderer(int)}).
+	 */
+	public BatchRenderer(List<File> dataFiles, File outputPath, int[] presets, int width, int height, int supersample)
+	{
+		if (outputPath.exists() && !outputPath.isDirectory())
+			throw new IllegalArgumentException("outputPath must be a directory: \"" + outputPath.getPath() + "\"");
+		
+		if (supersample < 1 || supersample > ScreenshotRenderer.MAX_SUPERSAMPLE)
+			throw new IllegalArgumentException("The supersampling factor must be between 1 and "
+					+ ScreenshotRenderer.MAX_SUPERSAMPLE + "!");
+		
+		for (int preset : presets)
+		{
+			if (preset < 1 || preset > CameraController.PRESET_COUNT)
+				throw new IllegalArgumentException(preset + " is not a valid camera preset!");
+		}
+		
+		this.dataFiles = dataFiles;
+		this.outputPath = outputPath;
+		this.presets = presets;
+		this.width = width;
+		this.height = height;
+		this.supersample = supersample;
+		this.logger = new Logger("log.txt");
+	}
+	
+	
+	@Override
+	public void create()
+	{
+		camera = new PerspectiveCamera(67, 1, height / (float)width);
+		camera.near = 0.01f;
+		camera.far = 300;
+		
+		batch = new ModelBatch();
+		screenshotRenderer = new ScreenshotRenderer(supersample);
+	}
+	
+	
+	@Override
+	public void render()
+	{
+		Gdx.gl.glClearColor(0, 0, 0, 1);
+		Gdx.gl.glClear(GL20.GL_COLOR_BUFFER_BIT);
+		
+		if (nextFile < dataFiles.size())
+		{
+			File dataFile = dataFiles.get(nextFile++);
+			Gdx.graphics.setTitle(String.format("TetraColourSpace - Rendering %d/%d: %s", nextFile,
+					dataFiles.size(), dataFile.getName()));
+			
+			if (!renderFile(dataFile))
+				failures++;
+		}
+		else
+		{
+			System.out.format("Rendered %d of %d files to %s%n", dataFiles.size() - failures, dataFiles.size(),
+					outputPath.getPath());
+			if (failures > 0)
+				System.out.println("See log.txt for more information.");
+			Gdx.app.exit();
+		}
+	}
+	
+	
+	private boolean renderFile(File dataFile)
+	{
+		World world = null;
+		
+		try
+		{
+			Backend backend = new Backend(dataFile, logger, progress -> {});
+			world = new World(backend, camera);
+			String name = FileOperations.getNameWithoutExtension(dataFile);
+			
+			for (int preset : presets)
+			{
+				CameraController.applyPreset(camera, preset);
+				camera.update();
+				
+				File file = new File(outputPath, String.format("%s_%d.png", name, preset));
+				screenshotRenderer.render(world, camera, batch, backend.getStyle().get(Colour.BACKGROUND),
+						width, height, file);
+			}
+			
+			System.out.println("Rendered " + dataFile.getPath());
+			return true;
+		}
+		catch (Exception e)
+		{
+			String msg = "Error rendering " + dataFile.getPath();
+			logger.log(Level.ERROR, getClass().getSimpleName(), msg, e, false);
+			System.out.println(msg + ": " + e.getMessage());
+			return false;
+		}
+		finally
+		{
+			if (world != null)
+				world.dispose();
+		}
+	}
+	
+	
+	/**
+	 * Releases the resources and terminates the JVM. The application should be
+	 * created with <code>forceExit</code> disabled so that the exit status set
+	 * here is kept.
+	 */
+	@Override
+	public void dispose()
+	{
+		screenshotRenderer.dispose();
+		batch.dispose();
+		
+		// Files that were never rendered (e.g. if the window was closed) count as failures.
+		boolean success = (failures == 0 && nextFile == dataFiles.size());
+		System.exit(success ? 0 : 1);
+	}
+}
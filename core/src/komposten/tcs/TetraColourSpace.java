@@ -25,39 +25,40 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
 
 import javax.swing.JOptionPane;
-import javax.xml.parsers.ParserConfigurationException;
 
 import com.badlogic.gdx.ApplicationAdapter;
 import com.badlogic.gdx.Gdx;
-import com.badlogic.gdx.files.FileHandle;
 import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.GL20;
 import com.badlogic.gdx.graphics.OrthographicCamera;
 import com.badlogic.gdx.graphics.PerspectiveCamera;
-import com.badlogic.gdx.graphics.Pixmap;
-import com.badlogic.gdx.graphics.Pixmap.Filter;
-import com.badlogic.gdx.graphics.Pixmap.Format;
-import com.badlogic.gdx.graphics.PixmapIO.PNG;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
 import com.badlogic.gdx.graphics.g3d.ModelBatch;
-import com.badlogic.gdx.graphics.glutils.FrameBuffer;
 import com.badlogic.gdx.math.Vector3;
-import com.badlogic.gdx.utils.BufferUtils;
 import com.badlogic.gdx.utils.Disposable;
-import com.badlogic.gdx.utils.ScreenUtils;
 
+import komposten.tcs.BackgroundLoader.LoadListener;
 import komposten.tcs.backend.Backend;
-import komposten.tcs.backend.ParseException;
+import komposten.tcs.backend.PointStream;
+import komposten.tcs.backend.Style;
 import komposten.tcs.backend.Style.Colour;
+import komposten.tcs.backend.Style.Setting;
 import komposten.tcs.backend.data.Point;
+import komposten.tcs.backend.data.PointGroup;
 import komposten.tcs.input.Action;
 import komposten.tcs.input.CameraController;
 import komposten.tcs.input.InputHandler;
 import komposten.tcs.input.InputHandler.InputListener;
+import komposten.tcs.rendering.ScreenshotRenderer;
+import komposten.tcs.rendering.TurntableExporter;
 import komposten.tcs.rendering.World;
+import komposten.tcs.ui.ProgressIndicator;
 import komposten.tcs.ui.UserInterface;
+import komposten.tcs.util.FileWatcher;
+import komposten.tcs.util.TCSUtils;
 import komposten.utilities.logging.Level;
 import komposten.utilities.logging.Logger;
 import komposten.utilities.tools.FileOperations;
@@ -65,33 +66,70 @@ import komposten.utilities.tools.FileOperations;
 
 public class TetraColourSpace extends ApplicationAdapter
 {
-	private static final int SCREENSHOT_SIZE = 1080;
-	private static final int SCREENSHOT_SUPERSAMPLE = 10;
+	/**
+	 * The longest frame time used for the first frame after being idle, so the
+	 * time spent idle does not make the camera jump.
+	 */
+	private static final float MAX_RESUME_DELTA = 1/60f;
 	
 	private Logger logger;
 	private List<Point> selectionLog;
 	
+	private BackgroundLoader loader;
 	private Backend backend;
+	private Style style;
 	private World world;
 	private UserInterface userInterface;
+	private ProgressIndicator progressIndicator;
 	private CameraController cameraController;
 	private InputHandler inputHandler;
 	
 	private File dataFile;
 	private File outputPath;
+	private boolean watchDataFile;
+	private String streamSource;
 	private PerspectiveCamera camera;
 	private OrthographicCamera spriteCamera;
 	private ModelBatch batch;
 	private SpriteBatch spriteBatch;
 	
-	private FrameBuffer screenshotBuffer;
+	private ScreenshotRenderer screenshotRenderer;
+	private TurntableExporter turntableExporter;
+	private FileWatcher fileWatcher;
+	private PointStream pointStream;
 	
 	private List<Disposable> disposables;
 	
 	private boolean takeScreenshot = false;
+	private boolean toggleTurntable = false;
+	private boolean reloadPending = false;
 	private boolean cameraDirty = true;
+	private boolean idle = false;
 	
 	public TetraColourSpace(File dataFile, File outputPath)
+	{
+		this(dataFile, outputPath, false);
+	}
+	
+	
+	/**
+	 * @param watch If <code>true</code>, <code>dataFile</code> is loaded again
+	 *          whenever it changes.
+	 */
+	public TetraColourSpace(File dataFile, File outputPath, boolean watch)
+	{
+		this(dataFile, outputPath, watch, null);
+	}
+	
+	
+	/**
+	 * @param watch If <code>true</code>, <code>dataFile</code> is loaded again
+	 *          whenever it changes.
+	 * @param streamSource If not <code>null</code>, points received from this
+	 *          source are added to the graph (see
+	 *          {@link PointStream#PointStream(String, Logger, Runnable)}).
+	 */
+	public TetraColourSpace(File dataFile, File outputPath, boolean watch, String streamSource)
 	{
 		if (outputPath == null)
 			outputPath = new File("output/");
@@ -100,6 +138,8 @@ public class TetraColourSpace extends ApplicationAdapter
 		
 		this.dataFile = dataFile;
 		this.outputPath = outputPath;
+		this.watchDataFile = watch;
+		this.streamSource = streamSource;
 		this.logger = new Logger("log.txt");
 		this.selectionLog = new LinkedList<>();
 	}
@@ -110,6 +150,11 @@ public class TetraColourSpace extends ApplicationAdapter
 	{
 		Gdx.graphics.setTitle("TetraColourSpace - " + dataFile.getName());
 		
+		// Only render when something changes. Input events and posted runnables
+		// request rendering automatically, anything else must call
+		// requestRendering() (see render()).
+		Gdx.graphics.setContinuousRendering(false);
+		
 		inputHandler = new InputHandler("config.ini", logger);
 		Gdx.input.setInputProcessor(inputHandler);
 		
@@ -121,46 +166,105 @@ public class TetraColourSpace extends ApplicationAdapter
 		
 		inputHandler.addListener(inputListener);
 		
-		createScreenshotBuffer();
-		if (loadData())
-		{
-			setupPerspectiveCamera();
-			updateViewport();
-		}
+		style = new Style();
+		progressIndicator = new ProgressIndicator();
+		progressIndicator.setColour(style.get(Colour.TEXT));
+		
+		updateViewport();
+		
+		loader = new BackgroundLoader(logger, loadListener);
+		loader.loadData(dataFile);
 	}
 
 
-	private void createScreenshotBuffer()
+	private void dataLoaded(Backend backend)
 	{
-		if (screenshotBuffer != null)
-			screenshotBuffer.dispose();
+		this.backend = backend;
+		this.style = backend.getStyle();
+		progressIndicator.setColour(style.get(Colour.TEXT));
 		
-		float ratio = Gdx.graphics.getHeight() / (float)Gdx.graphics.getWidth();
-		int width = SCREENSHOT_SIZE*SCREENSHOT_SUPERSAMPLE;
-		int height = (int)(width * ratio);
-		screenshotBuffer = new FrameBuffer(Format.RGBA8888, width, height, true);
+		world = new World(backend, camera, true);
+		userInterface = new UserInterface(backend, world);
+		screenshotRenderer = new ScreenshotRenderer(style.get(Setting.SCREENSHOT_SUPERSAMPLE).intValue());
+		turntableExporter = new TurntableExporter(TurntableExporter.DEFAULT_SUPERSAMPLE);
+		
+		userInterface.attachToInputHandler(inputHandler);
+		world.attachToInputHandler(inputHandler);
+		
+		setupPerspectiveCamera();
+		updateViewport();
+		
+		loader.loadPointGroups(world);
+		
+		if (watchDataFile)
+			startWatching();
+		if (streamSource != null)
+			startStream();
 	}
-
-
-	private boolean loadData()
+	
+	
+	private void startWatching()
 	{
 		try
 		{
-			backend = new Backend(dataFile, logger);
-			world = new World(backend, camera);
-			userInterface = new UserInterface(backend, world);
-			
-			userInterface.attachToInputHandler(inputHandler);
-			world.attachToInputHandler(inputHandler);
+			fileWatcher = new FileWatcher(dataFile, () -> Gdx.app.postRunnable(() -> reloadPending = true));
 		}
-		catch (IOException | ParserConfigurationException | ParseException e)
+		catch (IOException e)
 		{
-			showErrorDialog();
-			Gdx.app.exit();
-			return false;
+			String msg = "Could not watch " + dataFile.getPath() + " for changes";
+			logger.log(Level.ERROR, getClass().getSimpleName(), msg, e, false);
+		}
+	}
+	
+	
+	private void startStream()
+	{
+		try
+		{
+			pointStream = new PointStream(streamSource, logger, Gdx.graphics::requestRendering);
+			Gdx.graphics.setTitle("TetraColourSpace - " + dataFile.getName() + " + " + pointStream.getSourceName());
+		}
+		catch (IOException e)
+		{
+			String msg = "Could not receive points from " + streamSource;
+			logger.log(Level.ERROR, getClass().getSimpleName(), msg, e, false);
+		}
+	}
+	
+	
+	/**
+	 * Adds the points received by the point stream since the last frame.
+	 */
+	private void addStreamedPoints()
+	{
+		int groupCount = backend.getGraph().getDataGroups().size();
+		List<PointGroup> groups = pointStream.addReceivedPoints(backend.getGraph(), style);
+		
+		if (!groups.isEmpty())
+		{
+			world.addPoints(groups);
+			if (backend.getGraph().getDataGroups().size() != groupCount)
+				userInterface.graphChanged();
 		}
+	}
+	
+	
+	private void dataReloaded(Backend newBackend)
+	{
+		if (!newBackend.getStyle().equals(style))
+			logger.log(Level.INFO, "The style of " + dataFile.getName() + " has changed. Reopen the file to apply the new style.");
+		
+		// Materials for colours that are no longer used should not be kept around.
+		// Groups that are kept hold on to their own materials.
+		TCSUtils.getMaterialCache().clear();
+		
+		// Only the changed groups and volumes are generated again, and the camera
+		// is left as it is.
+		world.reload(newBackend.getGraph());
+		userInterface.graphChanged();
+		loader.reloadPointGroups(world);
 		
-		return true;
+		logger.log(Level.INFO, "Reloaded " + dataFile.getPath());
 	}
 
 
@@ -191,6 +295,13 @@ public class TetraColourSpace extends ApplicationAdapter
 	@Override
 	public void render()
 	{
+		if (world == null)
+		{
+			renderLoadingScreen();
+			Gdx.graphics.requestRendering();
+			return;
+		}
+		
 		boolean cameraUpdated = cameraDirty || cameraController.isCameraDirty();
 		if (cameraUpdated)
 		{
@@ -201,70 +312,165 @@ public class TetraColourSpace extends ApplicationAdapter
 		
 		if (takeScreenshot)
 		{
-			Gdx.gl.glLineWidth(SCREENSHOT_SUPERSAMPLE);
-			screenshotBuffer.begin();
+			saveScreenshot();
+			takeScreenshot = false;
 		}
 		
-		Color colourBackground = backend.getStyle().get(Colour.BACKGROUND);
-		Gdx.gl.glClearColor(colourBackground.r, colourBackground.g, colourBackground.b, colourBackground.a);
-		Gdx.gl.glClear(GL20.GL_COLOR_BUFFER_BIT | GL20.GL_DEPTH_BUFFER_BIT);
+		if (toggleTurntable)
+		{
+			toggleTurntableExport();
+			toggleTurntable = false;
+		}
+		
+		if (reloadPending && !loader.isLoading())
+		{
+			loader.reloadData(dataFile);
+			reloadPending = false;
+		}
+		
+		if (pointStream != null && !loader.isLoading())
+			addStreamedPoints();
+		
+		screenshotRenderer.update(world, camera, batch);
+		turntableExporter.update(world, camera, batch);
+		clearScreen();
 
 		batch.begin(camera);
 		world.render(batch, cameraUpdated);
 		batch.end();
-
-		if (takeScreenshot)
-		{
-			saveBufferToFile();
-			screenshotBuffer.end();
-			takeScreenshot = false;
-			Gdx.gl.glLineWidth(1);
-		}
 		
 		spriteBatch.begin();
 		userInterface.render(spriteBatch);
+		if (loader.isLoading())
+			progressIndicator.render(spriteBatch, loader.getStatusText(), loader.getProgress());
+		else if (turntableExporter.isExporting())
+			progressIndicator.render(spriteBatch, turntableExporter.getStatusText(), turntableExporter.getProgress());
 		spriteBatch.end();
 		
 		//Handle input
-		cameraController.readInput(Gdx.graphics.getDeltaTime(), inputHandler);
+		float deltaTime = Gdx.graphics.getDeltaTime();
+		if (idle)
+			deltaTime = Math.min(deltaTime, MAX_RESUME_DELTA);
+		cameraController.readInput(deltaTime, inputHandler);
 		
 		//Update stuff
-		world.update();
+		boolean highlightChanged = world.update();
 		updateSelectionLog();
+		
+		idle = !cameraController.isCameraDirty() && !cameraController.isMoving(inputHandler)
+				&& !highlightChanged && !loader.isLoading() && !screenshotRenderer.isBusy()
+				&& !turntableExporter.isBusy();
+		if (!idle)
+			Gdx.graphics.requestRendering();
+	}
+
+
+	private void renderLoadingScreen()
+	{
+		clearScreen();
+		
+		spriteBatch.begin();
+		progressIndicator.render(spriteBatch, loader.getStatusText(), loader.getProgress());
+		spriteBatch.end();
+	}
+
+
+	private void clearScreen()
+	{
+		Color colourBackground = style.get(Colour.BACKGROUND);
+		Gdx.gl.glClearColor(colourBackground.r, colourBackground.g, colourBackground.b, colourBackground.a);
+		Gdx.gl.glClear(GL20.GL_COLOR_BUFFER_BIT | GL20.GL_DEPTH_BUFFER_BIT);
 	}
 
 
-	private void saveBufferToFile()
+	private void saveScreenshot()
 	{
-		int width = screenshotBuffer.getWidth();
-		int height = screenshotBuffer.getHeight();
-		byte[] pixels = ScreenUtils.getFrameBufferPixels(0, 0, width, height, false);
+		if (!screenshotRenderer.canTakeScreenshot())
+		{
+			logger.log(Level.INFO, "Too many screenshots are being saved, skipping screenshot.");
+			return;
+		}
 		
-		Pixmap pixmapSS = new Pixmap(width, height, Format.RGBA8888);
-		BufferUtils.copy(pixels, 0, pixmapSS.getPixels(), pixels.length);
+		int width = ScreenshotRenderer.DEFAULT_WIDTH;
+		int height = getExportHeight(width);
 		
-		Pixmap pixmap = new Pixmap(SCREENSHOT_SIZE, height / SCREENSHOT_SUPERSAMPLE, Format.RGBA8888);
-		pixmap.setFilter(Filter.BiLinear);
-		pixmapSS.setFilter(Filter.BiLinear);
-		pixmap.drawPixmap(pixmapSS, 0, 0, width, height, 0, 0, pixmap.getWidth(), pixmap.getHeight());
+		String baseName = getExportName("");
+		File file = new File(outputPath, baseName + ".png");
 		
-		DateFormat dateFormat = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.LONG);
-		String dateString = dateFormat.format(new Date()).replaceAll("[^\\s0-9]+", "").trim().replace(' ', '_');
-		String fileName = String.format("%s_%s.png", FileOperations.getNameWithoutExtension(dataFile), dateString);
-		FileHandle file = new FileHandle(new File(outputPath, fileName));
-		PNG png = new PNG((int)(width*height*1.5f));
+		// Several screenshots may be taken within the same second.
+		for (int i = 2; file.exists(); i++)
+			file = new File(outputPath, String.format("%s_%d.png", baseName, i));
 		
+		String msg = "Error saving screenshot to " + file.getPath();
 		try
 		{
-			png.write(file, pixmap);
+			screenshotRenderer.takeScreenshot(camera, style.get(Colour.BACKGROUND), width, height, file)
+					.whenComplete((result, e) ->
+					{
+						if (e != null)
+							logger.log(Level.ERROR, getClass().getSimpleName(), msg, e, false);
+					});
 		}
 		catch (IOException e)
 		{
-			String msg = "Error saving screenshot to " + file.path();
 			logger.log(Level.ERROR, getClass().getSimpleName(), msg, e, false);
 		}
+	}
+
+
+	private void toggleTurntableExport()
+	{
+		if (turntableExporter.isExporting())
+		{
+			turntableExporter.cancel();
+			return;
+		}
 		
-		pixmap.dispose();
+		// Video encoders often require an even height.
+		int width = ScreenshotRenderer.DEFAULT_WIDTH;
+		int height = getExportHeight(width) & ~1;
+		Vector3 focalPoint = cameraController.getFocalPoint(new Vector3());
+		int direction = cameraController.getRotationDirection();
+		File directory = new File(outputPath, getExportName("_turntable"));
+		
+		String msg = "Error exporting turntable to " + directory.getPath();
+		try
+		{
+			turntableExporter.start(camera, focalPoint, direction, TurntableExporter.DEFAULT_FRAMES,
+					style.get(Colour.BACKGROUND), width, height, directory).whenComplete((result, e) ->
+					{
+						if (e instanceof CancellationException)
+							logger.log(Level.INFO, "Cancelled turntable export to " + directory.getPath());
+						else if (e != null)
+							logger.log(Level.ERROR, getClass().getSimpleName(), msg, e, false);
+					});
+		}
+		catch (IOException e)
+		{
+			logger.log(Level.ERROR, getClass().getSimpleName(), msg, e, false);
+		}
+	}
+
+
+	/**
+	 * @return The height of an exported image with the given width and the
+	 *         same aspect ratio as the window.
+	 */
+	private int getExportHeight(int width)
+	{
+		float ratio = Gdx.graphics.getHeight() / (float)Gdx.graphics.getWidth();
+		return (int)(width * ratio);
+	}
+
+
+	/**
+	 * @return A name on the form <code>&lt;data file&gt;&lt;suffix&gt;_&lt;date&gt;</code>.
+	 */
+	private String getExportName(String suffix)
+	{
+		DateFormat dateFormat = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.LONG);
+		String dateString = dateFormat.format(new Date()).replaceAll("[^\\s0-9]+", "").trim().replace(' ', '_');
+		return String.format("%s%s_%s", FileOperations.getNameWithoutExtension(dataFile), suffix, dateString);
 	}
 
 
@@ -276,7 +482,7 @@ public class TetraColourSpace extends ApplicationAdapter
 		if (!selectionLog.isEmpty())
 			lastSelection = selectionLog.get(selectionLog.size()-1);
 		
-		if (currentSelection != null && currentSelection != lastSelection)
+		if (currentSelection != null && !currentSelection.equals(lastSelection))
 			selectionLog.add(currentSelection);
 	}
 
@@ -311,9 +517,38 @@ public class TetraColourSpace extends ApplicationAdapter
 	@Override
 	public void dispose()
 	{
-		screenshotBuffer.dispose();
+		if (fileWatcher != null)
+		{
+			try
+			{
+				fileWatcher.close();
+			}
+			catch (IOException e)
+			{
+				logger.log(Level.ERROR, getClass().getSimpleName(), "Error closing the file watcher", e, false);
+			}
+		}
+		
+		if (pointStream != null)
+		{
+			try
+			{
+				pointStream.close();
+			}
+			catch (IOException e)
+			{
+				logger.log(Level.ERROR, getClass().getSimpleName(), "Error closing the point stream", e, false);
+			}
+		}
+		
+		loader.dispose();
 		batch.dispose();
+		progressIndicator.dispose();
 		
+		if (screenshotRenderer != null)
+			screenshotRenderer.dispose();
+		if (turntableExporter != null)
+			turntableExporter.dispose();
 		if (userInterface != null)
 			userInterface.dispose();
 		disposeObjects();
@@ -342,6 +577,40 @@ public class TetraColourSpace extends ApplicationAdapter
 	}
 	
 
+	private LoadListener loadListener = new LoadListener()
+	{
+		@Override
+		public void onDataLoaded(Backend backend)
+		{
+			dataLoaded(backend);
+		}
+		
+		
+		@Override
+		public void onLoadFailed(Exception exception)
+		{
+			showErrorDialog();
+			Gdx.app.exit();
+		}
+		
+		
+		@Override
+		public void onDataReloaded(Backend backend)
+		{
+			dataReloaded(backend);
+		}
+		
+		
+		@Override
+		public void onReloadFailed(Exception exception)
+		{
+			// The error has already been logged. Either the old data is still shown,
+			// or only the group that failed is missing.
+			logger.log(Level.INFO, "Could not reload " + dataFile.getPath() + " completely.");
+		}
+	};
+	
+
 	private InputListener inputListener = new InputListener()
 	{
 		@Override
@@ -352,6 +621,11 @@ public class TetraColourSpace extends ApplicationAdapter
 				takeScreenshot = true;
 				return true;
 			}
+			else if (action == Action.EXPORT_TURNTABLE)
+			{
+				toggleTurntable = true;
+				return true;
+			}
 			
 			return false;
 		}
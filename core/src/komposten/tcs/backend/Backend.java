@@ -18,14 +18,23 @@
  */
 package komposten.tcs.backend;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.DoubleConsumer;
 
 import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -38,16 +47,37 @@ import komposten.utilities.logging.Logger;
 
 public class Backend
 {
+	/**
+	 * Data files larger than this (in bytes) are streamed instead of being
+	 * parsed into a DOM tree first.
+	 */
+	private static final long STREAMING_THRESHOLD = 16L * 1024 * 1024;
+	
 	private Logger logger;
 	private File dataFile;
+	private DoubleConsumer progressListener;
 	private Style style;
 	private GraphData graph;
+	private HullCache hullCache;
 
 	
 	public Backend(File dataFile, Logger logger) throws IOException, ParserConfigurationException, ParseException
+	{
+		this(dataFile, logger, null);
+	}
+
+	
+	/**
+	 * @param progressListener Receives the fraction (0-1) of the data file that
+	 *          has been read, or <code>null</code>. It is called on the loading
+	 *          thread.
+	 */
+	public Backend(File dataFile, Logger logger, DoubleConsumer progressListener) throws IOException, ParserConfigurationException, ParseException
 	{
 		this.dataFile = dataFile;
 		this.logger = logger;
+		this.progressListener = progressListener;
+		this.hullCache = new HullCache(HullCache.DEFAULT_DIRECTORY, logger);
 
 		loadDataFromFile();
 	}
@@ -63,20 +93,30 @@ public class Backend
 	{
 		return graph;
 	}
+	
+	
+	/**
+	 * Replaces the graph, e.g. with a graph loaded from a newer version of the
+	 * data file.
+	 */
+	public void setGraph(GraphData graph)
+	{
+		this.graph = graph;
+	}
 
 
 	private void loadDataFromFile() throws IOException, ParserConfigurationException, ParseException
 	{
 		try
 		{
-			DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
-			docBuilderFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
-			DocumentBuilder docBuilder = docBuilderFactory.newDocumentBuilder();
-			Document document = docBuilder.parse(dataFile);
-			Element root = document.getDocumentElement();
+			if (BinaryGraphLoader.isBinaryFile(dataFile))
+				loadBinaryFile();
+			else if (dataFile.length() > STREAMING_THRESHOLD)
+				streamDataFile();
+			else
+				parseDataFile();
 			
-			loadConfig(root);
-			loadGraph(root);
+			hullCache.prune();
 		}
 		catch (IOException e)
 		{
@@ -88,7 +128,7 @@ public class Backend
 			logError("Error creating the XML parser!", e);
 			throw e;
 		}
-		catch (SAXException e)
+		catch (SAXException | XMLStreamException e)
 		{
 			logError("Error parsing data file %s", e, dataFile.getPath());
 			throw new ParseException(e);
@@ -102,6 +142,83 @@ public class Backend
 	}
 
 
+	private void loadBinaryFile() throws IOException, ParseException
+	{
+		BinaryGraphLoader loader = new BinaryGraphLoader();
+		loader.load(dataFile);
+		
+		style = loader.getStyle();
+		graph = loader.getResult();
+	}
+
+
+	private void parseDataFile() throws IOException, ParserConfigurationException, SAXException, ParseException
+	{
+		DocumentBuilderFactory docBuilderFactory = DocumentBuilderFactory.newInstance();
+		docBuilderFactory.setFeature(XMLConstants.FEATURE_SECURE_PROCESSING, true);
+		DocumentBuilder docBuilder = docBuilderFactory.newDocumentBuilder();
+		Document document;
+		
+		try (InputStream input = openDataFile())
+		{
+			document = docBuilder.parse(input, dataFile.toURI().toString());
+		}
+		
+		Element root = document.getDocumentElement();
+		
+		loadConfig(root);
+		loadGraph(root);
+	}
+
+
+	private void streamDataFile() throws IOException, XMLStreamException, ParseException
+	{
+		XMLInputFactory inputFactory = XMLInputFactory.newInstance();
+		inputFactory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+		inputFactory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+		
+		style = new Style();
+		GraphLoader loader = createGraphLoader();
+		boolean success = streamDataFile(inputFactory, loader);
+		
+		// The <style> element came after data that used its defaults. It has been
+		// loaded now, so the data is loaded again with the right defaults.
+		if (loader.isRestartRequired())
+			success = streamDataFile(inputFactory, loader);
+		
+		checkResult(loader, success);
+	}
+
+
+	private boolean streamDataFile(XMLInputFactory inputFactory, GraphLoader loader) throws IOException, XMLStreamException
+	{
+		try (InputStream input = openDataFile())
+		{
+			XMLStreamReader reader = inputFactory.createXMLStreamReader(input);
+			
+			try
+			{
+				return loader.load(reader);
+			}
+			finally
+			{
+				reader.close();
+			}
+		}
+	}
+
+
+	private InputStream openDataFile() throws IOException
+	{
+		InputStream input = new FileInputStream(dataFile);
+		
+		if (progressListener != null)
+			input = new ProgressInputStream(input, dataFile.length(), progressListener);
+		
+		return new BufferedInputStream(input);
+	}
+
+
 	private void logError(String formatString, Throwable cause, Object... params)
 	{
 		String msg = String.format(formatString, params);
@@ -121,8 +238,23 @@ public class Backend
 	
 	private void loadGraph(Element root) throws ParseException
 	{
-		GraphLoader loader = new GraphLoader(style);
-		if (!loader.load(root))
+		GraphLoader loader = createGraphLoader();
+		checkResult(loader, loader.load(root));
+	}
+	
+	
+	private GraphLoader createGraphLoader()
+	{
+		if (Runtime.getRuntime().availableProcessors() > 1)
+			return new GraphLoader(style, ForkJoinPool.commonPool(), hullCache);
+		else
+			return new GraphLoader(style, null, hullCache);
+	}
+	
+	
+	private void checkResult(GraphLoader loader, boolean success) throws ParseException
+	{
+		if (!success)
 		{
 			List<String> errors = loader.getErrors();
 			
@@ -135,4 +267,60 @@ public class Backend
 		
 		graph = loader.getResult();
 	}
+	
+	
+	/**
+	 * Reports the number of bytes read (as a fraction of the total length) to a
+	 * listener.
+	 */
+	private static class ProgressInputStream extends FilterInputStream
+	{
+		private final double length;
+		private final DoubleConsumer listener;
+		private long bytesRead;
+		
+		
+		ProgressInputStream(InputStream input, long length, DoubleConsumer listener)
+		{
+			super(input);
+			this.length = Math.max(length, 1);
+			this.listener = listener;
+		}
+		
+		
+		@Override
+		public int read() throws IOException
+		{
+			int value = super.read();
+			if (value != -1)
+				bytesRead(1);
+			return value;
+		}
+		
+		
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException
+		{
+			int count = super.read(buffer, offset, length);
+			if (count > 0)
+				bytesRead(count);
+			return count;
+		}
+		
+		
+		@Override
+		public long skip(long count) throws IOException
+		{
+			long skipped = super.skip(count);
+			bytesRead(skipped);
+			return skipped;
+		}
+		
+		
+		private void bytesRead(long count)
+		{
+			bytesRead += count;
+			listener.accept(Math.min(bytesRead / length, 1));
+		}
+	}
 }
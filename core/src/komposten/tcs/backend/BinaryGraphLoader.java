@@ -0,0 +1,287 @@
+/*
+ * Copyright 2019 Jakob Hjelm
+ * 
+ * This file is part of TetraColourSpace.
+ * 
+ * TetraColourSpace is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package komposten.tcs.backend;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.badlogic.gdx.graphics.Color;
+
+import komposten.tcs.backend.Style.Colour;
+import komposten.tcs.backend.Style.Setting;
+import komposten.tcs.backend.data.GraphData;
+import komposten.tcs.backend.data.PointGroup;
+import komposten.tcs.backend.data.PointStore;
+import komposten.tcs.backend.data.Shape;
+import komposten.tcs.backend.data.Volume;
+
+/**
+ * Loads graphs from binary TetraColourSpace files (see
+ * {@link BinaryGraphWriter} for the format).
+ * <br />
+ * The file is memory-mapped and the point columns are copied directly into
+ * each group's {@link PointStore}, without any parsing.
+ */
+public class BinaryGraphLoader
+{
+	/** The first four bytes of a binary graph file: <code>TCSB</code>. */
+	static final int MAGIC = 0x42534354;
+	static final int VERSION = 1;
+	
+	private Style style;
+	private GraphData result;
+	
+	
+	/**
+	 * @return <code>true</code> if <code>file</code> starts with the magic bytes
+	 *         of the binary graph format.
+	 */
+	public static boolean isBinaryFile(File file) throws IOException
+	{
+		byte[] magic = new byte[4];
+		
+		try (InputStream input = new FileInputStream(file))
+		{
+			if (input.read(magic) < magic.length)
+				return false;
+		}
+		
+		return ByteBuffer.wrap(magic).order(ByteOrder.LITTLE_ENDIAN).getInt() == MAGIC;
+	}
+	
+	
+	static int getPaddedLength(int length)
+	{
+		return (length + 3) & ~3;
+	}
+	
+	
+	public Style getStyle()
+	{
+		return style;
+	}
+	
+	
+	public GraphData getResult()
+	{
+		return result;
+	}
+	
+	
+	public void load(File file) throws IOException, ParseException
+	{
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ))
+		{
+			if (channel.size() > Integer.MAX_VALUE)
+				throw new ParseException("Binary graph files must be smaller than 2 GiB!");
+			
+			ByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			
+			load(buffer);
+		}
+		catch (BufferUnderflowException e)
+		{
+			throw new ParseException("Unexpected end of file!", e);
+		}
+	}
+	
+	
+	private void load(ByteBuffer buffer) throws ParseException
+	{
+		if (buffer.getInt() != MAGIC)
+			throw new ParseException("Not a binary graph file!");
+		
+		int version = buffer.getInt();
+		if (version != VERSION)
+			throw new ParseException("Unsupported binary graph version: " + version);
+		
+		int groupCount = buffer.getInt();
+		int volumeCount = buffer.getInt();
+		
+		style = new Style();
+		result = new GraphData();
+		
+		readStyle(buffer);
+		
+		for (int i = 0; i < groupCount; i++)
+			result.addGroup(readGroup(buffer));
+		for (int i = 0; i < volumeCount; i++)
+			result.addVolume(readVolume(buffer));
+	}
+	
+	
+	private void readStyle(ByteBuffer buffer) throws ParseException
+	{
+		int colourCount = buffer.getInt();
+		for (int i = 0; i < colourCount; i++)
+		{
+			Colour colour = getEnumValue(Colour.class, readString(buffer));
+			boolean isSet = (buffer.getInt() != 0);
+			int rgba = buffer.getInt();
+			
+			style.set(colour, isSet ? new Color(rgba) : null);
+		}
+		
+		int settingCount = buffer.getInt();
+		for (int i = 0; i < settingCount; i++)
+		{
+			Setting setting = getEnumValue(Setting.class, readString(buffer));
+			double value = buffer.getDouble();
+			
+			try
+			{
+				style.loadSetting(setting, value);
+			}
+			catch (IllegalArgumentException e)
+			{
+				throw new ParseException("Invalid value for " + setting + ": " + e.getMessage(), e);
+			}
+		}
+	}
+	
+	
+	private PointGroup readGroup(ByteBuffer buffer) throws ParseException
+	{
+		String name = readString(buffer);
+		Shape shape = getEnumValue(Shape.class, readString(buffer));
+		float size = buffer.getFloat();
+		int count = readCount(buffer, 8 * Float.BYTES);
+		int nameCount = readCount(buffer, Integer.BYTES);
+		
+		List<String> names = new ArrayList<>(nameCount);
+		for (int i = 0; i < nameCount; i++)
+			names.add(readString(buffer));
+		
+		float[] x = readFloats(buffer, count);
+		float[] y = readFloats(buffer, count);
+		float[] z = readFloats(buffer, count);
+		float[] theta = readFloats(buffer, count);
+		float[] phi = readFloats(buffer, count);
+		float[] magnitude = readFloats(buffer, count);
+		int[] colours = readInts(buffer, count);
+		int[] nameIndices = readInts(buffer, count);
+		
+		for (int nameIndex : nameIndices)
+		{
+			if (nameIndex < 0 || nameIndex >= nameCount)
+				throw new ParseException("Invalid name index in group \"" + name + "\": " + nameIndex);
+		}
+		
+		PointStore store = new PointStore(x, y, z, theta, phi, magnitude, colours, nameIndices, names);
+		return new PointGroup(name, store, shape, size);
+	}
+	
+	
+	private Volume readVolume(ByteBuffer buffer) throws ParseException
+	{
+		Color colour = new Color(buffer.getInt());
+		int vertexCount = readCount(buffer, 3 * Double.BYTES);
+		
+		double[] coordinates = new double[vertexCount*3];
+		buffer.asDoubleBuffer().get(coordinates);
+		buffer.position(buffer.position() + coordinates.length * Double.BYTES);
+		
+		int[][] faces = new int[readCount(buffer, Integer.BYTES)][];
+		for (int i = 0; i < faces.length; i++)
+		{
+			faces[i] = readInts(buffer, readCount(buffer, Integer.BYTES));
+			
+			for (int index : faces[i])
+			{
+				if (index < 0 || index >= vertexCount)
+					throw new ParseException("Invalid vertex index in volume: " + index);
+			}
+		}
+		
+		return new Volume(coordinates, faces, colour);
+	}
+	
+	
+	private float[] readFloats(ByteBuffer buffer, int count)
+	{
+		float[] values = new float[count];
+		buffer.asFloatBuffer().get(values);
+		buffer.position(buffer.position() + count * Float.BYTES);
+		return values;
+	}
+	
+	
+	private int[] readInts(ByteBuffer buffer, int count)
+	{
+		int[] values = new int[count];
+		buffer.asIntBuffer().get(values);
+		buffer.position(buffer.position() + count * Integer.BYTES);
+		return values;
+	}
+	
+	
+	/**
+	 * Reads an element count and checks that it is non-negative and that the
+	 * elements fit in the remainder of the buffer.
+	 */
+	private int readCount(ByteBuffer buffer, int bytesPerElement) throws ParseException
+	{
+		int count = buffer.getInt();
+		
+		if (count < 0 || (long)count * bytesPerElement > buffer.remaining())
+			throw new ParseException("Invalid element count: " + count);
+		
+		return count;
+	}
+	
+	
+	private String readString(ByteBuffer buffer) throws ParseException
+	{
+		int length = readCount(buffer, 1);
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		
+		int padding = getPaddedLength(length) - length;
+		if (padding > buffer.remaining())
+			throw new ParseException("Unexpected end of file!");
+		
+		buffer.position(buffer.position() + padding);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+	
+	
+	private <T extends Enum<T>> T getEnumValue(Class<T> type, String name) throws ParseException
+	{
+		try
+		{
+			return Enum.valueOf(type, name);
+		}
+		catch (IllegalArgumentException e)
+		{
+			throw new ParseException("Invalid " + type.getSimpleName() + ": " + name, e);
+		}
+	}
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright 2019 Jakob Hjelm
+ * 
+ * This file is part of TetraColourSpace.
+ * 
+ * TetraColourSpace is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package komposten.tcs.backend;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import javax.xml.parsers.ParserConfigurationException;
+
+import com.badlogic.gdx.graphics.Color;
+
+import komposten.tcs.backend.Style.Colour;
+import komposten.tcs.backend.Style.Setting;
+import komposten.tcs.backend.data.GraphData;
+import komposten.tcs.backend.data.PointGroup;
+import komposten.tcs.backend.data.PointStore;
+import komposten.tcs.backend.data.Volume;
+import komposten.utilities.logging.Logger;
+
+/**
+ * Writes graphs to the binary TetraColourSpace format (<code>.tcsb</code>),
+ * which can be loaded without parsing by {@link BinaryGraphLoader}.
+ * <br />
+ * All values are little-endian. Strings are stored as an <code>int</code>
+ * byte count followed by UTF-8 bytes, padded to a multiple of four bytes so
+ * that all columns are 4-byte aligned. The file consists of:
+ * <ol>
+ * <li>Header: magic (<code>TCSB</code>), version, group count and volume count
+ * (4 <code>int</code>s).</li>
+ * <li>Style: the number of colours, followed by each colour's id (string),
+ * whether it is set (<code>int</code>) and its RGBA8888 value
+ * (<code>int</code>). Then the number of settings, followed by each setting's
+ * id (string) and value (<code>double</code>).</li>
+ * <li>Groups: name (string), shape (string), size (<code>float</code>), point
+ * count, name count and the names (strings). Followed by the point columns:
+ * <code>x, y, z, theta, phi, r</code> (<code>float[]</code>), colour and name
+ * index (<code>int[]</code>).</li>
+ * <li>Volumes: colour (<code>int</code>), vertex count, the vertex coordinates
+ * (<code>double[]</code>), face count and the faces (vertex count followed by
+ * the vertex indices).</li>
+ * </ol>
+ */
+public class BinaryGraphWriter
+{
+	private static final int BUFFER_SIZE = 1 << 16;
+	
+	private FileChannel channel;
+	private ByteBuffer buffer;
+	
+	
+	/**
+	 * Loads an XML graph file and writes it to a binary graph file.
+	 * @param xmlFile The XML file to convert.
+	 * @param outputFile The binary file to create.
+	 */
+	public static void convert(File xmlFile, File outputFile) throws IOException, ParserConfigurationException, ParseException
+	{
+		Backend backend = new Backend(xmlFile, new Logger("log.txt"));
+		new BinaryGraphWriter().write(backend.getStyle(), backend.getGraph(), outputFile);
+	}
+	
+	
+	public void write(Style style, GraphData graph, File file) throws IOException
+	{
+		buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		
+		try (FileChannel fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE))
+		{
+			channel = fileChannel;
+			
+			putInt(BinaryGraphLoader.MAGIC);
+			putInt(BinaryGraphLoader.VERSION);
+			putInt(graph.getDataGroups().size());
+			putInt(graph.getDataVolumes().size());
+			
+			writeStyle(style);
+			
+			for (PointGroup group : graph.getDataGroups())
+				writeGroup(group);
+			for (Volume volume : graph.getDataVolumes())
+				writeVolume(volume);
+			
+			flush();
+		}
+		finally
+		{
+			channel = null;
+			buffer = null;
+		}
+	}
+	
+	
+	private void writeStyle(Style style) throws IOException
+	{
+		putInt(Colour.values().length);
+		for (Colour colour : Colour.values())
+		{
+			Color value = style.get(colour);
+			putString(colour.name());
+			putInt(value != null ? 1 : 0);
+			putInt(value != null ? Color.rgba8888(value) : 0);
+		}
+		
+		putInt(Setting.values().length);
+		for (Setting setting : Setting.values())
+		{
+			putString(setting.name());
+			putDouble(style.get(setting).doubleValue());
+		}
+	}
+	
+	
+	private void writeGroup(PointGroup group) throws IOException
+	{
+		PointStore points = group.getStore();
+		int count = points.size();
+		
+		putString(group.getName());
+		putString(group.getShape().name());
+		putFloat(group.getSize());
+		putInt(count);
+		putInt(points.getNameCount());
+		
+		for (int i = 0; i < points.getNameCount(); i++)
+			putString(points.getNameFromTable(i));
+		
+		for (int i = 0; i < count; i++)
+			putFloat(points.getX(i));
+		for (int i = 0; i < count; i++)
+			putFloat(points.getY(i));
+		for (int i = 0; i < count; i++)
+			putFloat(points.getZ(i));
+		for (int i = 0; i < count; i++)
+			putFloat(points.getTheta(i));
+		for (int i = 0; i < count; i++)
+			putFloat(points.getPhi(i));
+		for (int i = 0; i < count; i++)
+			putFloat(points.getMagnitude(i));
+		for (int i = 0; i < count; i++)
+			putInt(points.getColour(i));
+		for (int i = 0; i < count; i++)
+			putInt(points.getNameIndex(i));
+	}
+	
+	
+	private void writeVolume(Volume volume) throws IOException
+	{
+		double[] coordinates = volume.getCoordinates();
+		int[][] faces = volume.getFaces();
+		
+		putInt(Color.rgba8888(volume.getColour()));
+		putInt(coordinates.length / 3);
+		for (double coordinate : coordinates)
+			putDouble(coordinate);
+		
+		putInt(faces.length);
+		for (int[] face : faces)
+		{
+			putInt(face.length);
+			for (int index : face)
+				putInt(index);
+		}
+	}
+	
+	
+	private void putInt(int value) throws IOException
+	{
+		ensureSpace(Integer.BYTES);
+		buffer.putInt(value);
+	}
+	
+	
+	private void putFloat(float value) throws IOException
+	{
+		ensureSpace(Float.BYTES);
+		buffer.putFloat(value);
+	}
+	
+	
+	private void putDouble(double value) throws IOException
+	{
+		ensureSpace(Double.BYTES);
+		buffer.putDouble(value);
+	}
+	
+	
+	private void putString(String value) throws IOException
+	{
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		putInt(bytes.length);
+		
+		for (int i = 0; i < BinaryGraphLoader.getPaddedLength(bytes.length); i++)
+		{
+			ensureSpace(1);
+			buffer.put(i < bytes.length ? bytes[i] : 0);
+		}
+	}
+	
+	
+	private void ensureSpace(int bytes) throws IOException
+	{
+		if (buffer.remaining() < bytes)
+			flush();
+	}
+	
+	
+	private void flush() throws IOException
+	{
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+}
@@ -18,9 +18,17 @@
  */
 package komposten.tcs.backend;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Deque;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 
 import org.w3c.dom.Element;
 import org.w3c.dom.NamedNodeMap;
@@ -33,21 +41,71 @@ import com.badlogic.gdx.math.Vector3;
 import komposten.tcs.backend.Style.Colour;
 import komposten.tcs.backend.Style.Setting;
 import komposten.tcs.backend.data.GraphData;
+import komposten.tcs.backend.data.PointStore;
 import komposten.tcs.backend.data.Shape;
+import komposten.tcs.backend.data.Volume;
 import komposten.tcs.util.TCSUtils;
 import komposten.utilities.tools.MathOps;
 import komposten.utilities.tools.Regex;
 
+/**
+ * Loads graphs from XML data.
+ * <br />
+ * The raw point data is collected in chunks of {@value #CHUNK_SIZE} points,
+ * which are converted into {@link PointStore}s either directly or (if a
+ * {@link ForkJoinPool} is specified) in parallel. The chunks are always added
+ * to their groups in document order, so the resulting graph and error list
+ * are the same in both cases.
+ * <br />
+ * The convex hulls of the volumes are likewise computed in the pool, and are
+ * read from a {@link HullCache} if one is specified.
+ */
 public class GraphLoader
 {
+	private static final int CHUNK_SIZE = 8192;
+	
 	private Style style;
+	private ForkJoinPool pool;
+	private HullCache hullCache;
 
 	private GraphData result;
 	private List<String> errors;
+	
+	private PointReader pointReader;
+	private PointChunk currentChunk;
+	private Deque<PointChunk> pendingChunks;
+	private List<VolumeTask> pendingVolumes;
+	private boolean restartRequired;
 
 	public GraphLoader(Style style)
+	{
+		this(style, null);
+	}
+	
+	
+	/**
+	 * @param pool The pool to convert point data in, or <code>null</code> to
+	 *          convert it on the calling thread.
+	 */
+	public GraphLoader(Style style, ForkJoinPool pool)
+	{
+		this(style, pool, null);
+	}
+	
+	
+	/**
+	 * @param pool The pool to convert point data and compute volume hulls in, or
+	 *          <code>null</code> to do it on the calling thread.
+	 * @param hullCache The cache to read and store volume hulls in, or
+	 *          <code>null</code> to always compute them.
+	 */
+	public GraphLoader(Style style, ForkJoinPool pool, HullCache hullCache)
 	{
 		this.style = style;
+		this.pool = pool;
+		this.hullCache = hullCache;
+		this.pendingChunks = new ArrayDeque<>();
+		this.pendingVolumes = new ArrayList<>();
 	}
 	
 	
@@ -63,26 +121,166 @@ public class GraphLoader
 	}
 	
 	
+	/**
+	 * @return <code>true</code> if the last call to
+	 *         {@link #load(XMLStreamReader)} was stopped because the
+	 *         <code>&lt;style&gt;</code> element changed a default that earlier
+	 *         groups or points had already used. The style has been loaded by
+	 *         then, so loading the data again from a new reader gives the same
+	 *         result as {@link #load(Element)}.
+	 */
+	public boolean isRestartRequired()
+	{
+		return restartRequired;
+	}
+	
+	
 	public boolean load(Element dataElement)
 	{
 		errors = new ArrayList<>();
 		result = new GraphData();
+		pointReader = new PointReader(errors);
 		
-		boolean success = true;
-		if (!loadPointData(dataElement, result))
-			success = false;
-		if (!loadVolumeData(dataElement, result))
-			success = false;
+		loadPointData(dataElement, result);
+		loadVolumeData(dataElement, result);
 		
-		return success;
+		result.trim();
+		return errors.isEmpty();
 	}
-
-
-	private boolean loadPointData(Element root, GraphData graph)
+	
+	
+	/**
+	 * Loads the graph in a single pass over <code>reader</code>, without building
+	 * a DOM tree. The first <code>&lt;style&gt;</code> element is loaded into the
+	 * loader's style as it is encountered. If it changes the default point
+	 * colour or size after they have been used, loading stops after the style
+	 * (see {@link #isRestartRequired()}).
+	 * <br />
+	 * Volumes are parsed after all points, so errors are reported in the same
+	 * order as for {@link #load(Element)}.
+	 */
+	public boolean load(XMLStreamReader reader) throws XMLStreamException
 	{
-		boolean success = true;
+		errors = new ArrayList<>();
+		result = new GraphData();
+		pointReader = new PointReader(errors);
+		restartRequired = false;
+		
+		List<String[]> volumes = new ArrayList<>();
+		
+		boolean styleLoaded = false;
+		boolean usedDefaultColour = false;
+		boolean usedDefaultSize = false;
+		Color defaultColour = style.get(Colour.TEXT).cpy();
 		float defaultSize = style.get(Setting.POINT_SIZE).floatValue();
 		
+		int groupCount = 0;
+		int pointCount = 0;
+		
+		while (reader.hasNext())
+		{
+			if (reader.next() == XMLStreamConstants.START_ELEMENT)
+			{
+				switch (reader.getLocalName())
+				{
+					case "style" :
+						if (!styleLoaded)
+						{
+							streamStyle(reader);
+							styleLoaded = true;
+							
+							if ((usedDefaultColour && !defaultColour.equals(style.get(Colour.TEXT)))
+									|| (usedDefaultSize && defaultSize != style.get(Setting.POINT_SIZE).floatValue()))
+							{
+								discardPoints();
+								restartRequired = true;
+								return false;
+							}
+							}
+						break;
+					case "group" :
+						String groupName = getAttributeValue(reader, "name", "Group " + (groupCount+1));
+						String shapeName = getAttributeValue(reader, "shape", "sphere");
+						String sizeString = getAttributeValue(reader, "size", "");
+						
+						startGroup(groupName, shapeName, sizeString, result);
+						groupCount++;
+						pointCount = 0;
+						
+						if (!styleLoaded && !MathOps.isDouble(sizeString))
+							usedDefaultSize = true;
+						break;
+					case "point" :
+						if (currentChunk != null)
+						{
+							String colourHex = getAttributeValue(reader, "colour", null);
+							String name = getAttributeValue(reader, "name", "Point " + (pointCount+1));
+							String position = getAttributeValue(reader, "position", "");
+							
+							if (colourHex == null)
+							{
+								colourHex = style.get(Colour.TEXT).toString();
+								usedDefaultColour |= !styleLoaded;
+							}
+							
+							addPoint(name, colourHex, position);
+							pointCount++;
+						}
+						break;
+					case "volume" :
+						String colourHex = reader.getAttributeValue(null, "colour");
+						volumes.add(new String[] { colourHex, reader.getElementText() });
+						break;
+					default :
+						break;
+				}
+			}
+			else if (reader.isEndElement() && reader.getLocalName().equals("group"))
+			{
+				endGroup();
+			}
+		}
+		
+		finishPoints();
+		
+		for (String[] volume : volumes)
+		{
+			String colourHex = (volume[0] != null ? volume[0].trim() : style.get(Colour.TEXT).toString());
+			createVolume(colourHex, volume[1]);
+		}
+		
+		finishVolumes(result);
+		result.trim();
+		return errors.isEmpty();
+	}
+
+
+	private void streamStyle(XMLStreamReader reader) throws XMLStreamException
+	{
+		int depth = 1;
+		while (depth > 0)
+		{
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT)
+			{
+				String type = reader.getLocalName().toLowerCase();
+				String id = reader.getAttributeValue(null, "id");
+				
+				if (id != null)
+					style.loadEntry(type, id, reader.getElementText());
+				else
+					depth++;
+			}
+			else if (event == XMLStreamConstants.END_ELEMENT)
+			{
+				depth--;
+			}
+		}
+	}
+
+
+	private void loadPointData(Element root, GraphData graph)
+	{
 		NodeList groups = root.getElementsByTagName("group");
 		for (int g = 0; g < groups.getLength(); g++)
 		{
@@ -96,29 +294,40 @@ public class GraphLoader
 			String shapeName = getAttributeValue(groupShapeAttr, "sphere");
 			String sizeString = getAttributeValue(groupSizeAttr, "");
 			
-			Shape shape = Shape.fromString(shapeName);
-			float size = (MathOps.isDouble(sizeString) ? Double.valueOf(sizeString).floatValue() : defaultSize);
-			
-			if (shape == null)
-			{
-				shape = Shape.SPHERE;
-				errors.add("Invalid point shape: \"" + shapeName + "\"");
-				success = false;
-			}
-			
-			int groupIndex = graph.addGroup(groupName, shape, size);
-			if (!createGroupPoints(group, groupIndex, graph))
-				success = false;
-			
+			startGroup(groupName, shapeName, sizeString, graph);
+			createGroupPoints(group);
+			endGroup();
 		}
+		
+		finishPoints();
+	}
 
-		return success;
+
+	/**
+	 * Adds a new group to <code>graph</code> and starts collecting points for it.
+	 * If <code>shapeName</code> is not a valid shape an error is added and
+	 * {@link Shape#SPHERE} is used instead.
+	 */
+	private void startGroup(String groupName, String shapeName, String sizeString, GraphData graph)
+	{
+		float defaultSize = style.get(Setting.POINT_SIZE).floatValue();
+		
+		Shape shape = Shape.fromString(shapeName);
+		float size = (MathOps.isDouble(sizeString) ? Double.valueOf(sizeString).floatValue() : defaultSize);
+		
+		if (shape == null)
+		{
+			shape = Shape.SPHERE;
+			addError("Invalid point shape: \"" + shapeName + "\"");
+		}
+		
+		int groupIndex = graph.addGroup(groupName, shape, size);
+		currentChunk = new PointChunk(graph.getDataGroups().get(groupIndex).getStore());
 	}
 
 
-	private boolean createGroupPoints(Element groupData, int groupIndex, GraphData graph)
+	private void createGroupPoints(Element groupData)
 	{
-		boolean success = true;
 		NodeList points = groupData.getElementsByTagName("point");
 		for (int i = 0; i < points.getLength(); i++)
 		{
@@ -133,28 +342,96 @@ public class GraphLoader
 			String name = getAttributeValue(nameAttr, "Point " + (i+1));
 			String position = positionAttr.getNodeValue();
 			
-			Color colour = TCSUtils.getColourFromHex(colourHex);
-			
-			Vector3 metrics = getColourSpaceMetricsFromLine(position);
-			
-			if (metrics != null)
-			{
-				Vector3 coords = TCSUtils.getCoordinatesForMetrics(metrics.x, metrics.y, metrics.z);
-				graph.addPoint(name, coords, metrics, colour, groupIndex);
-			}
-			else
-			{
-				success = false;
-			}
+			addPoint(name, colourHex, position);
 		}
+	}
+
+
+	private void addPoint(String name, String colourHex, String position)
+	{
+		currentChunk.add(name, colourHex, position);
 		
-		return success;
+		if (currentChunk.size() == CHUNK_SIZE)
+		{
+			submitChunk(currentChunk);
+			currentChunk = new PointChunk(currentChunk.target);
+		}
 	}
 
 
-	private boolean loadVolumeData(Element root, GraphData graph)
+	private void endGroup()
+	{
+		if (currentChunk != null && currentChunk.size() > 0)
+			submitChunk(currentChunk);
+		currentChunk = null;
+	}
+
+
+	/**
+	 * Converts <code>chunk</code>, either directly or in the background. To limit
+	 * the amount of raw point data held in memory, the oldest pending chunk is
+	 * completed if too many chunks are queued.
+	 */
+	private void submitChunk(PointChunk chunk)
+	{
+		if (pool == null)
+		{
+			chunk.invoke();
+			completeChunk(chunk);
+		}
+		else
+		{
+			pool.execute(chunk);
+			pendingChunks.add(chunk);
+			
+			if (pendingChunks.size() > pool.getParallelism() * 4)
+				completeChunk(pendingChunks.poll());
+		}
+	}
+
+
+	private void completeChunk(PointChunk chunk)
+	{
+		chunk.target.addAll(chunk.join());
+		errors.addAll(chunk.errors);
+	}
+
+
+	/**
+	 * Waits for all pending chunks and adds them to their groups.
+	 */
+	private void finishPoints()
+	{
+		while (!pendingChunks.isEmpty())
+			completeChunk(pendingChunks.poll());
+	}
+
+
+	/**
+	 * Drops all points that have not been added to their groups yet.
+	 */
+	private void discardPoints()
+	{
+		for (PointChunk chunk : pendingChunks)
+			chunk.cancel(false);
+		pendingChunks.clear();
+		currentChunk = null;
+	}
+
+
+	/**
+	 * Adds an error after the errors of all pending chunks, so errors are listed
+	 * in document order.
+	 */
+	private void addError(String error)
+	{
+		finishPoints();
+		errors.add(error);
+	}
+
+
+	private void loadVolumeData(Element root, GraphData graph)
 	{
-		boolean success = true;
 		NodeList volumes = root.getElementsByTagName("volume");
 		for (int i = 0; i < volumes.getLength(); i++)
 		{
@@ -164,34 +441,61 @@ public class GraphLoader
 			Node colourAttr = attributes.getNamedItem("colour");
 			
 			String colourHex = getAttributeValue(colourAttr, style.get(Colour.TEXT).toString());
-			Color colour = TCSUtils.getColourFromHex(colourHex);
-	
-			String[] pointStrings = volumesNode.getFirstChild().getTextContent().trim().split("[\n\r]+");
-			pointStrings = Arrays.stream(pointStrings).filter(x -> !x.trim().isEmpty()).toArray(l -> new String[l]);
+			String pointData = volumesNode.getFirstChild().getTextContent();
+			
+			createVolume(colourHex, pointData);
+		}
+		
+		finishVolumes(graph);
+	}
+
+
+	private boolean createVolume(String colourHex, String pointData)
+	{
+		boolean success = true;
+		Color colour = TCSUtils.getColourFromHex(colourHex);
+
+		String[] pointStrings = pointData.trim().split("[\n\r]+");
+		pointStrings = Arrays.stream(pointStrings).filter(x -> !x.trim().isEmpty()).toArray(l -> new String[l]);
+		
+		double[] coords = new double[pointStrings.length*3];
+		for (int j = 0; j < pointStrings.length; j++)
+		{
+			String pointString = pointStrings[j].trim();
+			Vector3 vector = pointReader.readCoordinates(pointString);
 			
-			double[] coords = new double[pointStrings.length*3];
-			for (int j = 0; j < pointStrings.length; j++)
+			if (vector != null)
 			{
-				String pointString = pointStrings[j].trim();
-				Vector3 vector = getCoordinatesFromLine(pointString);
-				
-				if (vector != null)
-				{
-					coords[j*3+0] = vector.x;
-					coords[j*3+1] = vector.y;
-					coords[j*3+2] = vector.z;
-				}
-				else
-				{
-					success = false;
-				}
+				coords[j*3+0] = vector.x;
+				coords[j*3+1] = vector.y;
+				coords[j*3+2] = vector.z;
+			}
+			else
+			{
+				success = false;
 			}
-			
-			graph.addVolume(coords, colour);
 		}
 		
+		VolumeTask task = new VolumeTask(coords, colour, hullCache);
+		if (pool != null)
+			pool.execute(task);
+		pendingVolumes.add(task);
+		
 		return success;
 	}
+
+
+	/**
+	 * Waits for the hulls of all pending volumes and adds the volumes to
+	 * <code>graph</code> in document order.
+	 */
+	private void finishVolumes(GraphData graph)
+	{
+		for (VolumeTask task : pendingVolumes)
+			graph.addVolume(pool != null ? task.join() : task.invoke());
+		
+		pendingVolumes.clear();
+	}
 	
 	
 	private String getAttributeValue(Node attribute, String defaultValue)
@@ -201,40 +505,172 @@ public class GraphLoader
 		else
 			return defaultValue;
 	}
-
-
-	private Vector3 getCoordinatesFromLine(String line)
+	
+	
+	private String getAttributeValue(XMLStreamReader reader, String attribute, String defaultValue)
 	{
-		Vector3 metrics = getColourSpaceMetricsFromLine(line);
-
-		if (metrics == null)
-			return null;
+		String value = reader.getAttributeValue(null, attribute);
+		
+		if (value != null)
+			return value.trim();
 		else
-			return TCSUtils.getCoordinatesForMetrics(metrics.x, metrics.y, metrics.z);
+			return defaultValue;
+	}
+
+	/**
+	 * Raw data for a number of consecutive points in a group, which is converted
+	 * into a separate {@link PointStore} so it can be processed on any thread.
+	 */
+	private static class PointChunk extends RecursiveTask<PointStore>
+	{
+		private static final long serialVersionUID = 1L;
+		
+		private final PointStore target;
+		private final List<String> names;
+		private final List<String> colours;
+		private final List<String> positions;
+		private final List<String> errors;
+		
+		
+		PointChunk(PointStore target)
+		{
+			this.target = target;
+			this.names = new ArrayList<>();
+			this.colours = new ArrayList<>();
+			this.positions = new ArrayList<>();
+			this.errors = new ArrayList<>();
+		}
+		
+		
+		void add(String name, String colourHex, String position)
+		{
+			names.add(name);
+			colours.add(colourHex);
+			positions.add(position);
+		}
+		
+		
+		int size()
+		{
+			return names.size();
+		}
+		
+		
+		@Override
+		protected PointStore compute()
+		{
+			PointStore points = new PointStore(size());
+			PointReader reader = new PointReader(errors);
+			
+			for (int i = 0; i < size(); i++)
+				reader.readPoint(names.get(i), colours.get(i), positions.get(i), points);
+			
+			return points;
+		}
 	}
 	
 	
-	private Vector3 getColourSpaceMetricsFromLine(String line)
+	/**
+	 * Computes the convex hull of a volume, or reads it from the cache.
+	 */
+	private static class VolumeTask extends RecursiveTask<Volume>
 	{
-		String[] values = Regex.getMatches(MathOps.doubleRegex, line);
+		private static final long serialVersionUID = 1L;
+		
+		private final double[] points;
+		private final Color colour;
+		private final HullCache hullCache;
 		
-		if (values.length >= 3)
+		
+		VolumeTask(double[] points, Color colour, HullCache hullCache)
 		{
-			float[] floats = new float[values.length];
-			
-			for (int i = 0; i < floats.length; i++)
-				floats[i] = Float.parseFloat(values[i]);
+			this.points = points;
+			this.colour = colour;
+			this.hullCache = hullCache;
+		}
+		
+		
+		@Override
+		protected Volume compute()
+		{
+			if (hullCache != null)
+				return hullCache.getVolume(points, colour);
+			else
+				return Volume.fromPoints(points, colour);
+		}
+	}
+	
 	
-			float theta = floats[0];
-			float phi = floats[1];
-			float magnitude = floats[2];
+	/**
+	 * Converts point data into coordinates. Instances are not thread-safe.
+	 */
+	private static class PointReader
+	{
+		private final MetricsParser metricsParser;
+		private final float[] metricsBuffer;
+		private final List<String> errors;
+		
+		
+		PointReader(List<String> errors)
+		{
+			this.metricsParser = new MetricsParser();
+			this.metricsBuffer = new float[3];
+			this.errors = errors;
+		}
+		
+		
+		boolean readPoint(String name, String colourHex, String position, PointStore points)
+		{
+			int colour = TCSUtils.getRgbaFromHex(colourHex);
 			
-			return new Vector3(theta, phi, magnitude);
+			if (readColourSpaceMetrics(position, metricsBuffer))
+			{
+				float theta = metricsBuffer[0];
+				float phi = metricsBuffer[1];
+				float magnitude = metricsBuffer[2];
+				
+				Vector3 coords = TCSUtils.getCoordinatesForMetrics(theta, phi, magnitude);
+				points.add(name, coords.x, coords.y, coords.z, theta, phi, magnitude, colour);
+				return true;
+			}
+			
+			return false;
 		}
-		else
+		
+		
+		Vector3 readCoordinates(String line)
 		{
-			errors.add("Colour metrics must contain 3 values! [" + line + "]");
-			return null;
+			if (!readColourSpaceMetrics(line, metricsBuffer))
+				return null;
+			else
+				return TCSUtils.getCoordinatesForMetrics(metricsBuffer[0], metricsBuffer[1], metricsBuffer[2]);
+		}
+		
+		
+		/**
+		 * Reads theta, phi and r from <code>line</code> into <code>output</code>.
+		 * @return <code>false</code> (and adds an error) if the line does not contain
+		 *         three values.
+		 */
+		private boolean readColourSpaceMetrics(String line, float[] output)
+		{
+			if (metricsParser.parse(line, output))
+				return true;
+			
+			String[] values = Regex.getMatches(MathOps.doubleRegex, line);
+			
+			if (values.length >= 3)
+			{
+				for (int i = 0; i < output.length; i++)
+					output[i] = Float.parseFloat(values[i]);
+				
+				return true;
+			}
+			else
+			{
+				errors.add("Colour metrics must contain 3 values! [" + line + "]");
+				return false;
+			}
 		}
 	}
 }
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2019 Jakob Hjelm
+ * 
+ * This file is part of TetraColourSpace.
+ * 
+ * TetraColourSpace is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package komposten.tcs.backend;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.badlogic.gdx.graphics.Color;
+
+import komposten.tcs.backend.data.Volume;
+import komposten.utilities.logging.Level;
+import komposten.utilities.logging.Logger;
+
+/**
+ * Caches the convex hulls of volumes on disk, so unchanged volumes do not have
+ * to be run through QuickHull every time a graph is loaded.
+ * <br />
+ * Each hull is stored in its own file, named after the SHA-256 hash of the
+ * volume's input points. The file contains (little-endian) the magic
+ * (<code>TCSH</code>), version and input point count, followed by the hull in
+ * the same layout as volumes in binary graph files (see
+ * {@link BinaryGraphWriter}), without the colour. Files that cannot be read
+ * are treated as missing and are replaced.
+ * <br />
+ * This class is thread-safe, so hulls can be computed in parallel.
+ */
+public class HullCache
+{
+	/** The default cache directory, relative to the working directory. */
+	public static final File DEFAULT_DIRECTORY = new File("cache/hulls");
+	
+	private static final int MAGIC = 0x48534354;
+	private static final int VERSION = 1;
+	private static final String EXTENSION = ".hull";
+	/** Hulls of fewer points than this are faster to compute than to read. */
+	private static final int MIN_CACHED_POINTS = 256;
+	/** The least recently used files are deleted when there are more than this. */
+	private static final int MAX_FILES = 4096;
+	
+	private final File directory;
+	private final Logger logger;
+	private final AtomicBoolean writeFailed;
+	
+	
+	public HullCache(File directory, Logger logger)
+	{
+		this.directory = directory;
+		this.logger = logger;
+		this.writeFailed = new AtomicBoolean();
+	}
+	
+	
+	/**
+	 * Gets a volume formed by the convex hull of <code>points</code>, either
+	 * from the cache or by computing it with
+	 * {@link Volume#fromPoints(double[], Color)} (and storing it in the cache).
+	 * @param points The points, stored as <code>x1, y1, z1, x2, y2, z2, ...</code>
+	 */
+	public Volume getVolume(double[] points, Color colour)
+	{
+		int pointCount = points.length / 3;
+		if (pointCount < MIN_CACHED_POINTS)
+			return Volume.fromPoints(points, colour);
+		
+		File file = new File(directory, getKey(points) + EXTENSION);
+		Volume volume = read(file, pointCount, colour);
+		
+		if (volume == null)
+		{
+			volume = Volume.fromPoints(points, colour);
+			write(file, pointCount, volume);
+		}
+		
+		return volume;
+	}
+	
+	
+	private String getKey(double[] points)
+	{
+		MessageDigest digest;
+		try
+		{
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// Every Java implementation is required to support SHA-256.
+			throw new IllegalStateException(e);
+		}
+		
+		ByteBuffer buffer = ByteBuffer.allocate(points.length * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.asDoubleBuffer().put(points);
+		
+		StringBuilder key = new StringBuilder(64);
+		for (byte b : digest.digest(buffer.array()))
+			key.append(String.format("%02x", b));
+		
+		return key.toString();
+	}
+	
+	
+	/**
+	 * @return The cached volume, or <code>null</code> if <code>file</code> does
+	 *         not exist or is invalid.
+	 */
+	private Volume read(File file, int pointCount, Color colour)
+	{
+		if (!file.isFile())
+			return null;
+		
+		try
+		{
+			ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(file.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+			
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION || buffer.getInt() != pointCount)
+				return null;
+			
+			int vertexCount = readCount(buffer, 3 * Double.BYTES);
+			double[] coordinates = new double[vertexCount*3];
+			buffer.asDoubleBuffer().get(coordinates);
+			buffer.position(buffer.position() + coordinates.length * Double.BYTES);
+			
+			int[][] faces = new int[readCount(buffer, Integer.BYTES)][];
+			for (int i = 0; i < faces.length; i++)
+			{
+				faces[i] = new int[readCount(buffer, Integer.BYTES)];
+				buffer.asIntBuffer().get(faces[i]);
+				buffer.position(buffer.position() + faces[i].length * Integer.BYTES);
+				
+				for (int index : faces[i])
+				{
+					if (index < 0 || index >= vertexCount)
+						return null;
+				}
+			}
+			
+			// Mark the file as recently used (see prune()).
+			file.setLastModified(System.currentTimeMillis());
+			return new Volume(coordinates, faces, colour);
+		}
+		catch (IOException | BufferUnderflowException | IllegalArgumentException e)
+		{
+			return null;
+		}
+	}
+	
+	
+	private int readCount(ByteBuffer buffer, int elementSize)
+	{
+		int count = buffer.getInt();
+		if (count < 0 || (long) count * elementSize > buffer.remaining())
+			throw new IllegalArgumentException("Invalid count: " + count);
+		return count;
+	}
+	
+	
+	/**
+	 * Writes the hull to a temporary file first and then moves it into place,
+	 * so other threads and processes never see a partially written file.
+	 */
+	private void write(File file, int pointCount, Volume volume)
+	{
+		double[] coordinates = volume.getCoordinates();
+		int[][] faces = volume.getFaces();
+		
+		int size = 5 * Integer.BYTES + coordinates.length * Double.BYTES;
+		for (int[] face : faces)
+			size += (face.length + 1) * Integer.BYTES;
+		
+		ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(pointCount);
+		buffer.putInt(coordinates.length / 3);
+		for (double coordinate : coordinates)
+			buffer.putDouble(coordinate);
+		
+		buffer.putInt(faces.length);
+		for (int[] face : faces)
+		{
+			buffer.putInt(face.length);
+			for (int index : face)
+				buffer.putInt(index);
+		}
+		
+		Path tempFile = null;
+		try
+		{
+			Files.createDirectories(directory.toPath());
+			tempFile = Files.createTempFile(directory.toPath(), file.getName(), ".tmp");
+			Files.write(tempFile, buffer.array());
+			Files.move(tempFile, file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e)
+		{
+			if (tempFile != null)
+				tempFile.toFile().delete();
+			
+			// Only log the first failure, since the rest are most likely caused by
+			// the same problem.
+			if (writeFailed.compareAndSet(false, true))
+			{
+				String msg = "Could not write to the hull cache in " + directory.getPath();
+				logger.log(Level.ERROR, getClass().getSimpleName(), msg, e, false);
+			}
+		}
+	}
+	
+	
+	/**
+	 * Deletes the least recently used files if the cache holds more than
+	 * {@value #MAX_FILES} hulls.
+	 */
+	public void prune()
+	{
+		File[] files = directory.listFiles((dir, name) -> name.endsWith(EXTENSION));
+		
+		if (files != null && files.length > MAX_FILES)
+		{
+			Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+			for (int i = 0; i < files.length - MAX_FILES; i++)
+				files[i].delete();
+		}
+	}
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2019 Jakob Hjelm
+ * 
+ * This file is part of TetraColourSpace.
+ * 
+ * TetraColourSpace is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package komposten.tcs.backend;
+
+/**
+ * A regex-free parser for colour metric lines such as
+ * <code>-0.33,-0.41,0.51</code>.
+ * <br />
+ * Only comma-separated lists of plain decimal numbers (optionally in scientific
+ * notation) are accepted. {@link #parse(String, float[])} rejects anything else,
+ * so the caller can fall back on the regex-based parsing (which also produces
+ * the error messages).
+ * <br />
+ * The parsed values are identical to those of {@link Float#parseFloat(String)}.
+ * Numbers that can't be converted exactly using double arithmetic (e.g. more
+ * than 15 significant digits) are passed on to <code>Float.parseFloat()</code>.
+ * <br />
+ * Instances are not thread-safe.
+ */
+class MetricsParser
+{
+	private static final int MAX_EXACT_DIGITS = 15;
+	private static final double[] POWERS_OF_TEN = {
+			1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+	
+	private String line;
+	private int position;
+	private float value;
+	
+	private long mantissa;
+	private int digits;
+	private int pendingZeros;
+	
+	
+	/**
+	 * Parses a comma-separated list of numbers.
+	 * @param line The line to parse.
+	 * @param output An array to store the parsed values in. Values that don't fit
+	 *          in the array are parsed but not stored.
+	 * @return <code>true</code> if the line is a comma-separated list of at
+	 *         least three numbers, <code>false</code> otherwise.
+	 */
+	public boolean parse(String line, float[] output)
+	{
+		this.line = line;
+		this.position = 0;
+		
+		int count = 0;
+		skipWhitespace();
+		
+		while (true)
+		{
+			if (!parseNumber())
+				return false;
+			
+			if (count < output.length)
+				output[count] = value;
+			count++;
+			
+			skipWhitespace();
+			if (position == line.length())
+				break;
+			else if (line.charAt(position) != ',')
+				return false;
+			
+			position++;
+			skipWhitespace();
+		}
+		
+		return count >= 3;
+	}
+	
+	
+	private void skipWhitespace()
+	{
+		while (position < line.length() && line.charAt(position) <= ' ')
+			position++;
+	}
+	
+	
+	private boolean parseNumber()
+	{
+		int start = position;
+		int exponent = 0;
+		boolean negative = false;
+		
+		mantissa = 0;
+		digits = 0;
+		pendingZeros = 0;
+		
+		if (position < line.length() && line.charAt(position) == '-')
+		{
+			negative = true;
+			position++;
+		}
+		
+		if (readDigits() == 0)
+			return false;
+		
+		if (position < line.length() && line.charAt(position) == '.')
+		{
+			position++;
+			int fractionDigits = readDigits();
+			
+			if (fractionDigits == 0)
+				return false;
+			exponent -= fractionDigits;
+		}
+		
+		if (position < line.length() && (line.charAt(position) == 'e' || line.charAt(position) == 'E'))
+		{
+			position++;
+			int exponentSign = 1;
+			
+			if (position < line.length() && (line.charAt(position) == '-' || line.charAt(position) == '+'))
+			{
+				exponentSign = (line.charAt(position) == '-' ? -1 : 1);
+				position++;
+			}
+			
+			int exponentStart = position;
+			int exponentValue = 0;
+			while (position < line.length() && isDigit(line.charAt(position)))
+			{
+				if (exponentValue < 10000)
+					exponentValue = exponentValue * 10 + (line.charAt(position) - '0');
+				position++;
+			}
+			
+			if (position == exponentStart)
+				return false;
+			exponent += exponentSign * exponentValue;
+		}
+		
+		value = toFloat(start, exponent + pendingZeros, negative);
+		return true;
+	}
+	
+	
+	/**
+	 * Reads digits into {@link #mantissa}. Leading zeros are skipped, and
+	 * trailing zeros are only added to the mantissa if followed by a non-zero
+	 * digit (they are counted in {@link #pendingZeros} in the meantime).
+	 * @return The number of digits read.
+	 */
+	private int readDigits()
+	{
+		int start = position;
+		
+		while (position < line.length() && isDigit(line.charAt(position)))
+		{
+			int digit = line.charAt(position) - '0';
+			
+			if (digit == 0)
+			{
+				if (digits > 0)
+					pendingZeros++;
+			}
+			else
+			{
+				digits += pendingZeros + 1;
+				
+				if (digits <= MAX_EXACT_DIGITS)
+				{
+					for (; pendingZeros > 0; pendingZeros--)
+						mantissa *= 10;
+					mantissa = mantissa * 10 + digit;
+				}
+				
+				pendingZeros = 0;
+			}
+			
+			position++;
+		}
+		
+		return position - start;
+	}
+	
+	
+	private boolean isDigit(char c)
+	{
+		return c >= '0' && c <= '9';
+	}
+	
+	
+	private float toFloat(int start, int exponent, boolean negative)
+	{
+		if (digits == 0)
+			return (negative ? -0f : 0f);
+		
+		if (digits <= MAX_EXACT_DIGITS && Math.abs(exponent) < POWERS_OF_TEN.length)
+		{
+			// Both operands are exact, so the result is correctly rounded to a double.
+			double result;
+			if (exponent >= 0)
+				result = mantissa * POWERS_OF_TEN[exponent];
+			else
+				result = mantissa / POWERS_OF_TEN[-exponent];
+			
+			// Rounding to float is only ambiguous if the double lies exactly halfway
+			// between two floats (i.e. the 29 bits dropped by the cast are 100...0).
+			if ((Double.doubleToRawLongBits(result) & 0x1FFFFFFFL) != 0x10000000L)
+				return (float) (negative ? -result : result);
+		}
+		
+		return Float.parseFloat(line.substring(start, position));
+	}
+}
@@ -0,0 +1,317 @@
+/*
+ * Copyright 2019 Jakob Hjelm
+ * 
+ * This file is part of TetraColourSpace.
+ * 
+ * TetraColourSpace is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package komposten.tcs.backend;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.badlogic.gdx.math.Vector3;
+
+import komposten.tcs.backend.Style.Setting;
+import komposten.tcs.backend.data.GraphData;
+import komposten.tcs.backend.data.PointGroup;
+import komposten.tcs.backend.data.PointStore;
+import komposten.tcs.backend.data.Shape;
+import komposten.tcs.util.TCSUtils;
+import komposten.utilities.logging.Level;
+import komposten.utilities.logging.Logger;
+
+/**
+ * Receives points from another process while the graph is being shown,
+ * either over TCP connections on the local machine or from a named pipe.
+ * <br />
+ * Each line contains one point: the group name, the point name, the colour and
+ * the position (theta, phi and r, as in the XML-files), separated by tabs:
+ * <pre>group	name	#ff0000	-0.33,-0.41,0.51</pre>
+ * Empty lines and lines starting with <code>#</code> are ignored.
+ * <br />
+ * The points are parsed on a background thread and collected until
+ * {@link #addReceivedPoints(GraphData, Style)} is called, so they can be added
+ * to the graph in batches (e.g. once per frame). If
+ * {@link #MAX_PENDING_POINTS} points are waiting to be added, reading pauses
+ * until they have been added.
+ */
+public class PointStream implements Closeable
+{
+	public static final int MAX_PENDING_POINTS = 1 << 16;
+	
+	private final Logger logger;
+	private final Runnable listener;
+	private final ServerSocket serverSocket;
+	private final File file;
+	private final MetricsParser metricsParser;
+	private final float[] metricsBuffer;
+	
+	/** The received points, by group name. */
+	private Map<String, PointStore> receivedPoints;
+	private int receivedCount;
+	private volatile Closeable input;
+	private volatile boolean closed;
+	
+	
+	/**
+	 * Starts receiving points.
+	 * @param source A port number to accept TCP connections on (only from the
+	 *          local machine), or the path to a named pipe. The pipe is opened
+	 *          again each time the writing process closes it. A regular file is
+	 *          read once.
+	 * @param listener Called on the reading thread when points have been
+	 *          received and no earlier points are waiting to be added.
+	 * @throws IOException If the port can't be opened or the file does not
+	 *           exist.
+	 */
+	public PointStream(String source, Logger logger, Runnable listener) throws IOException
+	{
+		this.logger = logger;
+		this.listener = listener;
+		this.metricsParser = new MetricsParser();
+		this.metricsBuffer = new float[3];
+		this.receivedPoints = new LinkedHashMap<>();
+		
+		if (source.matches("\\d+"))
+		{
+			serverSocket = new ServerSocket(Integer.parseInt(source), 0, InetAddress.getLoopbackAddress());
+			file = null;
+		}
+		else
+		{
+			serverSocket = null;
+			file = new File(source);
+			if (!file.exists())
+				throw new FileNotFoundException("The stream source does not exist: " + file.getPath());
+		}
+		
+		Thread thread = new Thread(this::run, "Point stream");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	
+	/**
+	 * @return A description of the source, e.g. for the window title.
+	 */
+	public String getSourceName()
+	{
+		if (serverSocket != null)
+			return "port " + serverSocket.getLocalPort();
+		else
+			return file.getName();
+	}
+	
+	
+	private void run()
+	{
+		while (!closed)
+		{
+			try
+			{
+				if (serverSocket != null)
+				{
+					try (Socket socket = serverSocket.accept())
+					{
+						input = socket;
+						read(socket.getInputStream(), socket.getRemoteSocketAddress().toString());
+					}
+				}
+				else
+				{
+					try (InputStream stream = new FileInputStream(file))
+					{
+						input = stream;
+						read(stream, file.getPath());
+					}
+					
+					if (file.isFile())
+						break;
+				}
+			}
+			catch (IOException e)
+			{
+				if (!closed)
+				{
+					String msg = "Error reading points from " + getSourceName();
+					logger.log(Level.ERROR, getClass().getSimpleName(), msg, e, false);
+					
+					if (file != null)
+						break;
+				}
+			}
+			catch (InterruptedException e)
+			{
+				break;
+			}
+		}
+	}
+	
+	
+	private void read(InputStream stream, String sourceName) throws IOException, InterruptedException
+	{
+		BufferedReader reader = new BufferedReader(new InputStreamReader(stream, StandardCharsets.UTF_8));
+		int lineNumber = 0;
+		int invalidLines = 0;
+		
+		String line;
+		while ((line = reader.readLine()) != null)
+		{
+			lineNumber++;
+			
+			if (line.trim().isEmpty() || line.startsWith("#"))
+				continue;
+			
+			if (!readPoint(line) && invalidLines++ == 0)
+				logger.log(Level.ERROR, String.format("Invalid point on line %d from %s: %s", lineNumber, sourceName, line));
+		}
+		
+		if (invalidLines > 1)
+			logger.log(Level.ERROR, String.format("%d of %d lines from %s were invalid.", invalidLines, lineNumber, sourceName));
+	}
+	
+	
+	/**
+	 * Parses a line and adds the point to the received points.
+	 * @return <code>false</code> if the line is not a valid point.
+	 */
+	private boolean readPoint(String line) throws InterruptedException
+	{
+		String[] fields = line.split("\t");
+		if (fields.length != 4 || !metricsParser.parse(fields[3], metricsBuffer))
+			return false;
+		
+		float theta = metricsBuffer[0];
+		float phi = metricsBuffer[1];
+		float magnitude = metricsBuffer[2];
+		int colour;
+		Vector3 coords;
+		
+		try
+		{
+			colour = TCSUtils.getRgbaFromHex(fields[2].trim());
+			coords = TCSUtils.getCoordinatesForMetrics(theta, phi, magnitude);
+		}
+		catch (IllegalArgumentException e)
+		{
+			return false;
+		}
+		
+		boolean wasEmpty;
+		synchronized (this)
+		{
+			while (receivedCount >= MAX_PENDING_POINTS && !closed)
+				wait();
+			
+			PointStore points = receivedPoints.computeIfAbsent(fields[0], name -> new PointStore());
+			points.add(fields[1], coords.x, coords.y, coords.z, theta, phi, magnitude, colour);
+			wasEmpty = (receivedCount++ == 0);
+		}
+		
+		if (wasEmpty)
+			listener.run();
+		
+		return true;
+	}
+	
+	
+	/**
+	 * Adds the points received since the last call to <code>graph</code>.
+	 * Points in groups that are not in the graph are added to new groups,
+	 * which are drawn as spheres with the style's point size.
+	 * @return The groups that points were added to.
+	 */
+	public List<PointGroup> addReceivedPoints(GraphData graph, Style style)
+	{
+		Map<String, PointStore> points;
+		synchronized (this)
+		{
+			if (receivedCount == 0)
+				return Collections.emptyList();
+			
+			points = receivedPoints;
+			receivedPoints = new LinkedHashMap<>();
+			receivedCount = 0;
+			notifyAll();
+		}
+		
+		List<PointGroup> groups = new ArrayList<>(points.size());
+		for (Map.Entry<String, PointStore> entry : points.entrySet())
+		{
+			PointGroup group = getGroup(graph, entry.getKey());
+			if (group == null)
+			{
+				group = new PointGroup(entry.getKey(), Shape.SPHERE, style.get(Setting.POINT_SIZE).floatValue());
+				graph.addGroup(group);
+			}
+			
+			group.getStore().addAll(entry.getValue());
+			groups.add(group);
+		}
+		
+		return groups;
+	}
+	
+	
+	private PointGroup getGroup(GraphData graph, String name)
+	{
+		for (PointGroup group : graph.getDataGroups())
+		{
+			if (group.getName().equals(name))
+				return group;
+		}
+		
+		return null;
+	}
+	
+	
+	/**
+	 * Stops receiving points. A named pipe that no process has opened for
+	 * writing can't be closed, but the reading thread is a daemon thread and
+	 * will not keep the application running.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		closed = true;
+		
+		synchronized (this)
+		{
+			notifyAll();
+		}
+		
+		if (serverSocket != null)
+			serverSocket.close();
+		
+		Closeable current = input;
+		if (current != null)
+			current.close();
+	}
+}
@@ -33,6 +33,10 @@ public class Style
 {
 	public static final int RENDER_MODE_FAST = 0;
 	public static final int RENDER_MODE_SLOW = 1;
+	public static final int RENDER_MODE_INSTANCED = 2;
+	public static final int RENDER_MODE_SPRITES = 3;
+	public static final int PICK_MODE_CPU = 0;
+	public static final int PICK_MODE_GPU = 1;
 	
 	public enum Colour
 	{
@@ -55,7 +59,9 @@ public class Style
 		POINT_SIZE,
 		CORNER_SIZE,
 		SPHERE_QUALITY,
-		RENDER_MODE
+		RENDER_MODE,
+		PICK_MODE,
+		SCREENSHOT_SUPERSAMPLE
 	}
 	
 	private Map<Colour, Color> colours;
@@ -97,6 +103,8 @@ public class Style
 		settings.put(Setting.CORNER_SIZE, 0.03f);
 		settings.put(Setting.SPHERE_QUALITY, 25);
 		settings.put(Setting.RENDER_MODE, RENDER_MODE_FAST);
+		settings.put(Setting.PICK_MODE, PICK_MODE_CPU);
+		settings.put(Setting.SCREENSHOT_SUPERSAMPLE, 10);
 	}
 
 
@@ -115,19 +123,31 @@ public class Style
 			Node idAttr = child.getAttributes().getNamedItem("id");
 			
 			if (idAttr != null)
-			{
-				String id = idAttr.getNodeValue().trim().toUpperCase();
-				String value = child.getTextContent();
-				
-				if (type.equalsIgnoreCase("colour"))
-				{
-					loadColour(id, value);
-				}
-				else if (type.equalsIgnoreCase("setting"))
-				{
-					loadSetting(id, value);
-				}
-			}
+				loadEntry(type, idAttr.getNodeValue(), child.getTextContent());
+		}
+	}
+
+
+	/**
+	 * Loads a single style entry (i.e. a child of the <code>&lt;style&gt;</code>
+	 * element).
+	 * 
+	 * @param type The name of the entry's element (<code>colour</code> or
+	 *          <code>setting</code>).
+	 * @param id The value of the entry's <code>id</code> attribute.
+	 * @param value The text content of the entry.
+	 */
+	void loadEntry(String type, String id, String value)
+	{
+		id = id.trim().toUpperCase();
+		
+		if (type.equalsIgnoreCase("colour"))
+		{
+			loadColour(id, value);
+		}
+		else if (type.equalsIgnoreCase("setting"))
+		{
+			loadSetting(id, value);
 		}
 	}
 
@@ -144,8 +164,19 @@ public class Style
 	private void loadSetting(String id, String value)
 	{
 		Setting setting = Setting.valueOf(id);
-		
-		Number number = getNumberFromString(setting, value);
+		loadSetting(setting, getNumberFromString(setting, value));
+	}
+
+
+	/**
+	 * Validates and sets the value of a setting.
+	 * @throws IllegalArgumentException If the value is not valid for the
+	 *           setting.
+	 */
+	void loadSetting(Setting setting, Number number)
+	{
+		if (Double.isNaN(number.doubleValue()) || Double.isInfinite(number.doubleValue()))
+			throw new IllegalArgumentException(setting + " must be a finite number!");
 		
 		switch (setting)
 		{
@@ -163,9 +194,20 @@ public class Style
 				break;
 			case RENDER_MODE :
 				if (number.intValue() != RENDER_MODE_FAST
-						&& number.intValue() != RENDER_MODE_SLOW)
+						&& number.intValue() != RENDER_MODE_SLOW
+						&& number.intValue() != RENDER_MODE_INSTANCED
+						&& number.intValue() != RENDER_MODE_SPRITES)
 					throw new IllegalArgumentException(number.intValue() + " is an invalid render mode!");
 				break;
+			case PICK_MODE :
+				if (number.intValue() != PICK_MODE_CPU
+						&& number.intValue() != PICK_MODE_GPU)
+					throw new IllegalArgumentException(number.intValue() + " is an invalid pick mode!");
+				break;
+			case SCREENSHOT_SUPERSAMPLE :
+				if (number.intValue() < 1 || number.intValue() > 16)
+					throw new IllegalArgumentException("SCREENSHOT_SUPERSAMPLE must be between 1 and 16!");
+				break;
 			default :
 				return;
 		}
@@ -190,9 +232,26 @@ public class Style
 				return RENDER_MODE_FAST;
 			else if (value.equalsIgnoreCase("slow"))
 				return RENDER_MODE_SLOW;
+			else if (value.equalsIgnoreCase("instanced"))
+				return RENDER_MODE_INSTANCED;
+			else if (value.equalsIgnoreCase("sprites"))
+				return RENDER_MODE_SPRITES;
+		}
+		else if (setting == Setting.PICK_MODE)
+		{
+			if (value.equalsIgnoreCase("cpu"))
+				return PICK_MODE_CPU;
+			else if (value.equalsIgnoreCase("gpu"))
+				return PICK_MODE_GPU;
 		}
 		
-		throw new IllegalArgumentException(value + " is not a valid double, integer or rendering mode!");
+		throw new IllegalArgumentException(value + " is not a valid double, integer or mode!");
+	}
+	
+	
+	void set(Colour key, Color colour)
+	{
+		colours.put(key, colour);
 	}
 	
 	
@@ -218,4 +277,24 @@ public class Style
 	{
 		return settings.get(key);
 	}
+	
+	
+	@Override
+	public boolean equals(Object obj)
+	{
+		if (this == obj)
+			return true;
+		if (!(obj instanceof Style))
+			return false;
+		
+		Style other = (Style) obj;
+		return colours.equals(other.colours) && settings.equals(other.settings);
+	}
+	
+	
+	@Override
+	public int hashCode()
+	{
+		return 31 * colours.hashCode() + settings.hashCode();
+	}
 }
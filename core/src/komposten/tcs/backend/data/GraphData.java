@@ -23,7 +23,6 @@ import java.util.List;
 
 import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.math.Vector3;
-import com.github.quickhull3d.QuickHull3D;
 
 public class GraphData
 {
@@ -51,7 +50,12 @@ public class GraphData
 	
 	public int addGroup(String name, Shape shape, float size)
 	{
-		PointGroup group = new PointGroup(name, shape, size);
+		return addGroup(new PointGroup(name, shape, size));
+	}
+	
+	
+	public int addGroup(PointGroup group)
+	{
 		dataGroups.add(group);
 		
 		return dataGroups.size()-1;
@@ -61,35 +65,50 @@ public class GraphData
 	public void addPoint(String name, Vector3 coordinates, Vector3 metrics, Color colour,
 			int groupIndex)
 	{
-		PointGroup group = dataGroups.get(groupIndex);
-		Point point = new Point(name, coordinates, metrics, colour, group);
-		group.getPoints().add(point);
+		addPoint(name, coordinates.x, coordinates.y, coordinates.z,
+				metrics.x, metrics.y, metrics.z, Color.rgba8888(colour), groupIndex);
 	}
 	
 	
+	/**
+	 * Adds a point to a group.
+	 * @param rgba The colour of the point, as a packed RGBA8888 value.
+	 */
+	public void addPoint(String name, float x, float y, float z, float theta, float phi,
+			float magnitude, int rgba, int groupIndex)
+	{
+		PointStore store = dataGroups.get(groupIndex).getStore();
+		store.add(name, x, y, z, theta, phi, magnitude, rgba);
+	}
+	
+	
+	/**
+	 * Trims the {@link PointStore PointStores} of all groups. Should be called
+	 * once all data has been added.
+	 * @see PointStore#trim()
+	 */
+	public void trim()
+	{
+		for (PointGroup group : dataGroups)
+			group.getStore().trim();
+	}
+	
+	
+	/**
+	 * Adds a volume formed by the convex hull of the specified points.
+	 * @see Volume#fromPoints(double[], Color)
+	 */
 	public void addVolume(double[] coordinates, Color colour)
 	{
-		int[][] faces = null;
-		if (coordinates.length >= 12)
-		{
-			QuickHull3D quickHull = new QuickHull3D();
-			quickHull.build(coordinates);
-			
-			coordinates = new double[quickHull.getNumVertices()*3];
-			quickHull.getVertices(coordinates);
-			
-			faces = quickHull.getFaces();
-		}
-		else if (coordinates.length == 9)
-		{
-			faces = new int[1][];
-			faces[0] = new int[] { 0, 1, 2 };
-		}
-		else
-		{
-			faces = new int[0][];
-		}
-		
-		dataVolumes.add(new Volume(coordinates, faces, colour));
+		dataVolumes.add(Volume.fromPoints(coordinates, colour));
+	}
+	
+	
+	/**
+	 * Adds a volume whose faces have already been computed.
+	 */
+	public void addVolume(Volume volume)
+	{
+		dataVolumes.add(volume);
 	}
 }
@@ -22,31 +22,25 @@ import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.math.Vector3;
 
 /**
- * Stores information about a data point.
+ * Provides access to information about a data point.
+ * <br />
+ * The data itself is stored in the {@link PointStore} of the point's group;
+ * a Point only refers to an index in that store. Two Point objects are equal
+ * if they refer to the same point.
  */
 public class Point
 {
-	private PointGroup group;
-	private String name;
-	private Vector3 coordinates;
-	private Vector3 metrics;
-	private Color colour;		
+	private final PointGroup group;
+	private final int index;
 	
 	/**
-	 * @param name The name of the point.
-	 * @param coordinates The position of the point in the colour space.
-	 * @param metrics The tetrachromatic colour metrics for the point. <code>x, y,</code> and
-	 * <code>z</code> represent theta, phi and r respectively.
-	 * @param colour The colour of the point.
 	 * @param group The {@link PointGroup group} the point belongs to.
+	 * @param index The index of the point in the group's {@link PointStore}.
 	 */
-	public Point(String name, Vector3 coordinates, Vector3 metrics, Color colour, PointGroup group)
+	public Point(PointGroup group, int index)
 	{
 		this.group = group;
-		this.name = name;
-		this.coordinates = coordinates;
-		this.metrics = metrics;
-		this.colour = colour;
+		this.index = index;
 	}
 	
 	
@@ -54,39 +48,77 @@ public class Point
 	{
 		return group;
 	}
+	
+	
+	/**
+	 * @return The index of the point in its group's {@link PointStore}.
+	 */
+	public int getIndex()
+	{
+		return index;
+	}
 
 
 	public String getName()
 	{
-		return name;
+		return group.getStore().getName(index);
 	}
 
 
+	/**
+	 * @return A new vector containing the position of the point in the colour space.
+	 */
 	public Vector3 getCoordinates()
 	{
-		return coordinates;
+		return group.getStore().getCoordinates(index, new Vector3());
 	}
 
 
 	/**
-	 * @return The tetrachromatic colour metrics for the point. <code>x, y,</code> and
-	 * <code>z</code> represent theta, phi and r respectively.
+	 * @return A new vector containing the tetrachromatic colour metrics for the
+	 *         point. <code>x, y,</code> and <code>z</code> represent theta, phi
+	 *         and r respectively.
 	 */
 	public Vector3 getMetrics()
 	{
-		return metrics;
+		return group.getStore().getMetrics(index, new Vector3());
 	}
 
 	
+	/**
+	 * @return A new <code>Color</code> containing the colour of the point.
+	 */
 	public Color getColour()
 	{
-		return colour;
+		return group.getStore().getColour(index, new Color());
+	}
+	
+	
+	@Override
+	public boolean equals(Object obj)
+	{
+		if (this == obj)
+			return true;
+		if (!(obj instanceof Point))
+			return false;
+		
+		Point other = (Point) obj;
+		return group == other.group && index == other.index;
+	}
+	
+	
+	@Override
+	public int hashCode()
+	{
+		return 31 * System.identityHashCode(group) + index;
 	}
 	
 	
 	@Override
 	public String toString()
 	{
-		return String.format("%s|(%.03f, %.03f, %.03f)[%s]", name, metrics.x, metrics.y, metrics.z, colour);
+		PointStore store = group.getStore();
+		return String.format("%s|(%.03f, %.03f, %.03f)[%s]", store.getName(index),
+				store.getTheta(index), store.getPhi(index), store.getMagnitude(index), getColour());
 	}
 }
\ No newline at end of file
@@ -18,18 +18,19 @@
  */
 package komposten.tcs.backend.data;
 
-import java.util.ArrayList;
+import java.util.AbstractList;
 import java.util.List;
 
 import com.badlogic.gdx.graphics.Color;
 
 
 /**
- * A group of data points.
+ * A group of data points. The points' data is stored in a {@link PointStore}.
  */
 public class PointGroup
 {
 	private String name;
+	private PointStore store;
 	private List<Point> points;
 	private Shape shape;
 	private float size;
@@ -37,22 +38,22 @@ public class PointGroup
 	
 	public PointGroup(String name, Shape shape, float size)
 	{
-		this(name, new ArrayList<>(), shape, size);
+		this(name, new PointStore(), shape, size);
 	}
 	
 	
 	/**
 	 * 
 	 * @param name The name of the group.
-	 * @param points A list of {@link Point points}. The PointGroup will be backed
-	 *          by this list, so external changes are reflected in the group.
+	 * @param store A {@link PointStore} containing the points in the group.
 	 * @param shape The shape to use when rendering the point.
 	 * @param size The point size to use, or a negative value to use the default.
 	 */
-	public PointGroup(String name, List<Point> points, Shape shape, float size)
+	public PointGroup(String name, PointStore store, Shape shape, float size)
 	{
 		this.name = name;
-		this.points = points;
+		this.store = store;
+		this.points = new PointList();
 		this.shape = shape;
 		this.size = size;
 	}
@@ -61,11 +62,25 @@ public class PointGroup
 	{
 		return name;
 	}
+	
+	public PointStore getStore()
+	{
+		return store;
+	}
 
+	/**
+	 * @return An unmodifiable list view of the group's points. The
+	 *         {@link Point Points} are created when they are accessed.
+	 */
 	public List<Point> getPoints()
 	{
 		return points;
 	}
+	
+	public Point getPoint(int index)
+	{
+		return new Point(this, index);
+	}
 
 	public Shape getShape()
 	{
@@ -77,9 +92,14 @@ public class PointGroup
 		return size;
 	}
 	
-	public void setPoints(List<Point> points)
+	/**
+	 * @return <code>true</code> if <code>other</code> has the same name, shape,
+	 *         size and points as this group.
+	 */
+	public boolean hasSameData(PointGroup other)
 	{
-		this.points = points;
+		return name.equals(other.name) && shape == other.shape
+				&& Float.compare(size, other.size) == 0 && store.hasSameData(other.store);
 	}
 	
 	/**
@@ -87,6 +107,26 @@ public class PointGroup
 	 */
 	public Color getColour()
 	{
-		return (points.isEmpty() ? Color.WHITE : points.get(0).getColour());
+		return (store.size() == 0 ? Color.WHITE : store.getColour(0, new Color()));
+	}
+	
+	
+	private class PointList extends AbstractList<Point>
+	{
+		@Override
+		public Point get(int index)
+		{
+			if (index < 0 || index >= store.size())
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + store.size());
+			
+			return getPoint(index);
+		}
+		
+		
+		@Override
+		public int size()
+		{
+			return store.size();
+		}
 	}
 }
\ No newline at end of file
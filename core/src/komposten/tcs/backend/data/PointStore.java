@@ -0,0 +1,372 @@
+/*
+ * Copyright 2019 Jakob Hjelm
+ * 
+ * This file is part of TetraColourSpace.
+ * 
+ * TetraColourSpace is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package komposten.tcs.backend.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.math.Vector3;
+
+/**
+ * Stores the data for a number of points in primitive arrays (one array per
+ * property) instead of as separate objects.
+ * <br />
+ * Colours are stored as packed RGBA8888 values (see {@link Color#rgba8888(Color)}),
+ * and names are stored as indices into a table of unique names.
+ */
+public class PointStore
+{
+	private static final int DEFAULT_CAPACITY = 16;
+	
+	private float[] x;
+	private float[] y;
+	private float[] z;
+	private float[] theta;
+	private float[] phi;
+	private float[] magnitude;
+	private int[] colours;
+	private int[] nameIndices;
+	private int size;
+	
+	private List<String> names;
+	private Map<String, Integer> nameTable;
+	
+	
+	public PointStore()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+	
+	
+	public PointStore(int capacity)
+	{
+		capacity = Math.max(capacity, 1);
+		x = new float[capacity];
+		y = new float[capacity];
+		z = new float[capacity];
+		theta = new float[capacity];
+		phi = new float[capacity];
+		magnitude = new float[capacity];
+		colours = new int[capacity];
+		nameIndices = new int[capacity];
+		names = new ArrayList<>();
+	}
+	
+	
+	/**
+	 * Creates a store backed by the specified arrays. All point arrays must have
+	 * the same length.
+	 * @param colours The colours of the points, as packed RGBA8888 values.
+	 * @param nameIndices The names of the points, as indices into
+	 *          <code>names</code>.
+	 * @param names A table of point names.
+	 */
+	public PointStore(float[] x, float[] y, float[] z, float[] theta, float[] phi,
+			float[] magnitude, int[] colours, int[] nameIndices, List<String> names)
+	{
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		this.theta = theta;
+		this.phi = phi;
+		this.magnitude = magnitude;
+		this.colours = colours;
+		this.nameIndices = nameIndices;
+		this.names = new ArrayList<>(names);
+		this.size = x.length;
+	}
+	
+	
+	/**
+	 * Adds a point to the store.
+	 * @param name The name of the point.
+	 * @param x The x coordinate of the point in the colour space.
+	 * @param y The y coordinate of the point in the colour space.
+	 * @param z The z coordinate of the point in the colour space.
+	 * @param theta The theta (hue angle) of the point.
+	 * @param phi The phi (vertical hue angle) of the point.
+	 * @param magnitude The r (chroma) of the point.
+	 * @param rgba The colour of the point, as a packed RGBA8888 value.
+	 * @return The index of the new point.
+	 */
+	public int add(String name, float x, float y, float z, float theta, float phi,
+			float magnitude, int rgba)
+	{
+		if (size == this.x.length)
+			ensureCapacity(size + (size >> 1) + 1);
+		
+		this.x[size] = x;
+		this.y[size] = y;
+		this.z[size] = z;
+		this.theta[size] = theta;
+		this.phi[size] = phi;
+		this.magnitude[size] = magnitude;
+		this.colours[size] = rgba;
+		this.nameIndices[size] = getNameIndex(name);
+		
+		return size++;
+	}
+	
+	
+	/**
+	 * Appends all points in <code>points</code> to this store.
+	 */
+	public void addAll(PointStore points)
+	{
+		int count = points.size;
+		if (size + count > x.length)
+			ensureCapacity(Math.max(size + count, size + (size >> 1) + 1));
+
+		System.arraycopy(points.x, 0, x, size, count);
+		System.arraycopy(points.y, 0, y, size, count);
+		System.arraycopy(points.z, 0, z, size, count);
+		System.arraycopy(points.theta, 0, theta, size, count);
+		System.arraycopy(points.phi, 0, phi, size, count);
+		System.arraycopy(points.magnitude, 0, magnitude, size, count);
+		System.arraycopy(points.colours, 0, colours, size, count);
+
+		int[] nameMapping = new int[points.names.size()];
+		for (int i = 0; i < nameMapping.length; i++)
+			nameMapping[i] = getNameIndex(points.names.get(i));
+		for (int i = 0; i < count; i++)
+			nameIndices[size + i] = nameMapping[points.nameIndices[i]];
+
+		size += count;
+	}
+
+
+	private int getNameIndex(String name)
+	{
+		if (nameTable == null)
+		{
+			nameTable = new HashMap<>();
+			for (int i = 0; i < names.size(); i++)
+				nameTable.put(names.get(i), i);
+		}
+		
+		Integer index = nameTable.get(name);
+		if (index == null)
+		{
+			index = names.size();
+			names.add(name);
+			nameTable.put(name, index);
+		}
+		
+		return index;
+	}
+	
+	
+	public void ensureCapacity(int capacity)
+	{
+		if (capacity > x.length)
+		{
+			x = Arrays.copyOf(x, capacity);
+			y = Arrays.copyOf(y, capacity);
+			z = Arrays.copyOf(z, capacity);
+			theta = Arrays.copyOf(theta, capacity);
+			phi = Arrays.copyOf(phi, capacity);
+			magnitude = Arrays.copyOf(magnitude, capacity);
+			colours = Arrays.copyOf(colours, capacity);
+			nameIndices = Arrays.copyOf(nameIndices, capacity);
+		}
+	}
+	
+	
+	/**
+	 * Shrinks the arrays to the number of points in the store and releases the
+	 * lookup table used to intern names. Should be called once all points have
+	 * been added.
+	 */
+	public void trim()
+	{
+		if (size < x.length)
+		{
+			x = Arrays.copyOf(x, size);
+			y = Arrays.copyOf(y, size);
+			z = Arrays.copyOf(z, size);
+			theta = Arrays.copyOf(theta, size);
+			phi = Arrays.copyOf(phi, size);
+			magnitude = Arrays.copyOf(magnitude, size);
+			colours = Arrays.copyOf(colours, size);
+			nameIndices = Arrays.copyOf(nameIndices, size);
+		}
+		
+		nameTable = null;
+	}
+	
+	
+	public int size()
+	{
+		return size;
+	}
+	
+	
+	public float getX(int index)
+	{
+		return x[index];
+	}
+	
+	
+	public float getY(int index)
+	{
+		return y[index];
+	}
+	
+	
+	public float getZ(int index)
+	{
+		return z[index];
+	}
+	
+	
+	public float getTheta(int index)
+	{
+		return theta[index];
+	}
+	
+	
+	public float getPhi(int index)
+	{
+		return phi[index];
+	}
+	
+	
+	public float getMagnitude(int index)
+	{
+		return magnitude[index];
+	}
+	
+	
+	/**
+	 * @return The colour of the point as a packed RGBA8888 value.
+	 */
+	public int getColour(int index)
+	{
+		return colours[index];
+	}
+	
+	
+	public String getName(int index)
+	{
+		return names.get(nameIndices[index]);
+	}
+	
+	
+	/**
+	 * @return The index of the point's name in the name table.
+	 * @see #getNameFromTable(int)
+	 */
+	public int getNameIndex(int index)
+	{
+		return nameIndices[index];
+	}
+	
+	
+	/**
+	 * @return The number of unique names in the store.
+	 */
+	public int getNameCount()
+	{
+		return names.size();
+	}
+	
+	
+	public String getNameFromTable(int nameIndex)
+	{
+		return names.get(nameIndex);
+	}
+	
+	
+	/**
+	 * @return <code>true</code> if <code>other</code> contains the same points,
+	 *         in the same order, as this store.
+	 */
+	public boolean hasSameData(PointStore other)
+	{
+		if (size != other.size)
+			return false;
+		
+		for (int i = 0; i < size; i++)
+		{
+			if (Float.compare(x[i], other.x[i]) != 0
+					|| Float.compare(y[i], other.y[i]) != 0
+					|| Float.compare(z[i], other.z[i]) != 0
+					|| Float.compare(theta[i], other.theta[i]) != 0
+					|| Float.compare(phi[i], other.phi[i]) != 0
+					|| Float.compare(magnitude[i], other.magnitude[i]) != 0
+					|| colours[i] != other.colours[i]
+					|| !getName(i).equals(other.getName(i)))
+				return false;
+		}
+		
+		return true;
+	}
+	
+	
+	/**
+	 * @return The index of the first point with the name <code>name</code>, or
+	 *         -1 if there is no such point.
+	 */
+	public int indexOf(String name)
+	{
+		for (int i = 0; i < size; i++)
+		{
+			if (getName(i).equals(name))
+				return i;
+		}
+		
+		return -1;
+	}
+	
+	
+	/**
+	 * Stores the coordinates of a point in <code>output</code>.
+	 * @return <code>output</code>
+	 */
+	public Vector3 getCoordinates(int index, Vector3 output)
+	{
+		return output.set(x[index], y[index], z[index]);
+	}
+	
+	
+	/**
+	 * Stores the colour metrics of a point in <code>output</code>.
+	 * <code>x, y,</code> and <code>z</code> represent theta, phi and r
+	 * respectively.
+	 * @return <code>output</code>
+	 */
+	public Vector3 getMetrics(int index, Vector3 output)
+	{
+		return output.set(theta[index], phi[index], magnitude[index]);
+	}
+	
+	
+	/**
+	 * Stores the colour of a point in <code>output</code>.
+	 * @return <code>output</code>
+	 */
+	public Color getColour(int index, Color output)
+	{
+		return output.set(colours[index]);
+	}
+}
@@ -18,7 +18,11 @@
  */
 package komposten.tcs.backend.data;
 
+import java.util.Arrays;
+import java.util.Objects;
+
 import com.badlogic.gdx.graphics.Color;
+import com.github.quickhull3d.QuickHull3D;
 
 /**
  * Stores information about a volume consisting of several data points.
@@ -47,6 +51,40 @@ public class Volume
 		this.colour = colour;
 	}
 
+	/**
+	 * Creates a volume from the convex hull of a number of points. The hull is
+	 * computed with QuickHull, which can be slow for large point sets (see
+	 * {@link komposten.tcs.backend.HullCache HullCache}).
+	 * @param points The points, stored as <code>x1, y1, z1, x2, y2, z2, ...</code>
+	 */
+	public static Volume fromPoints(double[] points, Color colour)
+	{
+		double[] coordinates = points;
+		int[][] faces;
+		
+		if (points.length >= 12)
+		{
+			QuickHull3D quickHull = new QuickHull3D();
+			quickHull.build(points);
+			
+			coordinates = new double[quickHull.getNumVertices()*3];
+			quickHull.getVertices(coordinates);
+			
+			faces = quickHull.getFaces();
+		}
+		else if (points.length == 9)
+		{
+			faces = new int[1][];
+			faces[0] = new int[] { 0, 1, 2 };
+		}
+		else
+		{
+			faces = new int[0][];
+		}
+		
+		return new Volume(coordinates, faces, colour);
+	}
+
 	/**
 	 * @return The coordinates for the points forming the volume,
 	 *          stored as <code>x1, y1, z1, x2, y2, z2, ...</code>
@@ -72,4 +110,14 @@ public class Volume
 	{
 		return colour;
 	}
+
+	/**
+	 * @return <code>true</code> if <code>other</code> has the same vertices,
+	 *         faces and colour as this volume.
+	 */
+	public boolean hasSameData(Volume other)
+	{
+		return Arrays.equals(coordinates, other.coordinates) && Arrays.deepEquals(faces, other.faces)
+				&& Objects.equals(colour, other.colour);
+	}
 }
\ No newline at end of file
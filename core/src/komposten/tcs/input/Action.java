@@ -68,6 +68,8 @@ public enum Action
 	
 	TOGGLE_CROSSHAIR,
 	TOGGLE_LEGEND,
+	TOGGLE_STATS,
 	
-	SCREENSHOT
+	SCREENSHOT,
+	EXPORT_TURNTABLE
 }
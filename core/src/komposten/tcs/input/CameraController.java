@@ -36,6 +36,8 @@ public class CameraController implements InputReceiver
 	private static final int ANGULAR_VELOCITY = 50;
 	private static final int ANGULAR_AUTO_VELOCITY = 20;
 	private static final int MAX_DISTANCE = 5;
+	/** The number of camera presets available to {@link #applyPreset(Camera, int)}. */
+	public static final int PRESET_COUNT = 3;
 	
 	private enum FollowMode
 	{
@@ -89,8 +91,62 @@ public class CameraController implements InputReceiver
 	}
 	
 	
+	/**
+	 * @return <code>true</code> if the camera will keep moving without any new
+	 *         input events, i.e. if a movement action is active or the camera is
+	 *         auto-rotating.
+	 */
+	public boolean isMoving(InputHandler handler)
+	{
+		if (autoRotate && followMode != FollowMode.OFF)
+			return true;
+		
+		return handler.isActionActive(Action.MOVE_FORWARD)
+				|| handler.isActionActive(Action.MOVE_BACKWARD)
+				|| handler.isActionActive(Action.MOVE_LEFT)
+				|| handler.isActionActive(Action.MOVE_RIGHT)
+				|| handler.isActionActive(Action.MOVE_UP)
+				|| handler.isActionActive(Action.MOVE_DOWN)
+				|| handler.isActionActive(Action.MOVE_IN)
+				|| handler.isActionActive(Action.MOVE_OUT);
+	}
+	
+	
+	/**
+	 * Stores the point the camera is currently rotating around in
+	 * <code>out</code>. If the camera is not locked to a point, this is the
+	 * point along the line of sight that is closest to the origin.
+	 * @return <code>out</code>
+	 */
+	public Vector3 getFocalPoint(Vector3 out)
+	{
+		if (followMode == FollowMode.CENTRE)
+			return out.set(Vector3.Zero);
+		else if (followMode == FollowMode.SELECTED && world.hasSelection())
+			return out.set(world.getSelectedPoint().getCoordinates());
+		
+		// Not locked, or locked to a selection that no longer exists.
+		float distance = Math.max(0, -camera.position.dot(camera.direction));
+		return out.set(camera.direction).scl(distance).add(camera.position);
+	}
+	
+	
+	/**
+	 * @return <code>1</code> or <code>-1</code>, depending on the direction
+	 *         of the auto-rotation.
+	 */
+	public int getRotationDirection()
+	{
+		return (autoRotation > 0 ? 1 : -1);
+	}
+	
+	
 	public void readInput(float deltaTime, InputHandler handler)
 	{
+		// The selected point may have been removed, e.g. by reloading the data.
+		if (followMode == FollowMode.SELECTED && !world.hasSelection())
+			followMode = FollowMode.OFF;
+		
 		if (followMode != FollowMode.OFF)
 		{
 			if (rotationMovement(deltaTime, handler))
@@ -318,11 +374,43 @@ public class CameraController implements InputReceiver
 
 
 	public void lookAt(Vector3 target)
+	{
+		lookAt(camera, target);
+	}
+	
+	
+	private static void lookAt(Camera camera, Vector3 target)
 	{
 		camera.lookAt(target);
 		camera.up.set(Vector3.Y); //Resetting the up vector since camera.lookAt() changes it.
 	}
 	
+	
+	/**
+	 * Moves <code>camera</code> to one of the preset positions and points it at
+	 * the origin. Does not {@link Camera#update() update} the camera.
+	 * @param preset The preset to use, from 1 to {@link #PRESET_COUNT}.
+	 */
+	public static void applyPreset(Camera camera, int preset)
+	{
+		switch (preset)
+		{
+			case 1 :
+				camera.position.set(1, 1, -0.3f);
+				break;
+			case 2 :
+				camera.position.set(0, -1.4f, 0.0001f);
+				break;
+			case 3 :
+				camera.position.set(0, 1f, 0.0001f);
+				break;
+			default :
+				throw new IllegalArgumentException(preset + " is not a valid camera preset!");
+		}
+		
+		lookAt(camera, Vector3.Zero);
+	}
+	
 
 	private InputListener inputListener = new InputListener()
 	{
@@ -438,20 +526,17 @@ public class CameraController implements InputReceiver
 			}
 			else if (action == Action.CAMERA_PRESET_1)
 			{
-				camera.position.set(1, 1, -0.3f);
-				lookAt(Vector3.Zero);
+				applyPreset(camera, 1);
 				cameraDirty = true;
 			}
 			else if (action == Action.CAMERA_PRESET_2)
 			{
-				camera.position.set(0, -1.4f, 0.0001f);
-				lookAt(Vector3.Zero);
+				applyPreset(camera, 2);
 				cameraDirty = true;
 			}
 			else if (action == Action.CAMERA_PRESET_3)
 			{
-				camera.position.set(0, 1f, 0.0001f);
-				lookAt(Vector3.Zero);
+				applyPreset(camera, 3);
 				cameraDirty = true;
 			}
 			else if (action == Action.CATCH_MOUSE)
@@ -217,7 +217,9 @@ public class InputHandler implements InputProcessor
 		mapIfNotSet(Action.TOGGLE_METRICS, Keys.M);
 		mapIfNotSet(Action.TOGGLE_CROSSHAIR, Keys.C);
 		mapIfNotSet(Action.TOGGLE_LEGEND, Keys.L);
+		mapIfNotSet(Action.TOGGLE_STATS, Keys.F3);
 		mapIfNotSet(Action.SCREENSHOT, Keys.F12);
+		mapIfNotSet(Action.EXPORT_TURNTABLE, Keys.F11);
 	}
 	
 	
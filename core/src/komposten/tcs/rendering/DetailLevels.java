@@ -0,0 +1,137 @@
+/*
+ * Copyright 2019 Jakob Hjelm
+ * 
+ * This file is part of TetraColourSpace.
+ * 
+ * TetraColourSpace is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package komposten.tcs.rendering;
+
+import java.nio.IntBuffer;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Camera;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.collision.BoundingBox;
+import com.badlogic.gdx.utils.BufferUtils;
+
+/**
+ * Chooses which level of detail to render points at, based on how large the
+ * points are on the screen. Level 0 is the most detailed.
+ * <br />
+ * A level is chosen if its sphere has at least {@link #SEGMENTS_PER_PIXEL}
+ * segments per pixel of the point's diameter, so the edges of the sphere are
+ * never more than a few pixels long.
+ */
+class DetailLevels
+{
+	private static final float SEGMENTS_PER_PIXEL = 0.8f;
+	
+	private final float diameter;
+	private final int[] segments;
+	private final IntBuffer viewport;
+	
+	/** The point's diameter in pixels at w = 1. */
+	private float pixelScale;
+	/** The row of the combined matrix which gives the clip-space w. */
+	private float wx, wy, wz, w0;
+	
+	
+	/**
+	 * @param diameter The diameter of the points.
+	 * @param segments The number of sphere segments for each level, from the
+	 *          most to the least detailed.
+	 */
+	DetailLevels(float diameter, int[] segments)
+	{
+		this.diameter = diameter;
+		this.segments = segments;
+		this.viewport = BufferUtils.newIntBuffer(16);
+	}
+	
+	
+	int getLevelCount()
+	{
+		return segments.length;
+	}
+	
+	
+	/**
+	 * Updates the camera and viewport size used to pick levels. Must be called
+	 * on the rendering thread before the levels for a frame are picked.
+	 */
+	void update(Camera camera)
+	{
+		if (segments.length == 1)
+			return;
+		
+		Gdx.gl.glGetIntegerv(GL20.GL_VIEWPORT, viewport);
+		pixelScale = diameter * viewport.get(3) * 0.5f * camera.projection.val[Matrix4.M11];
+		
+		float[] combined = camera.combined.val;
+		wx = combined[Matrix4.M30];
+		wy = combined[Matrix4.M31];
+		wz = combined[Matrix4.M32];
+		w0 = combined[Matrix4.M33];
+	}
+	
+	
+	/**
+	 * @return The level to render a point at the specified position at.
+	 */
+	int getLevel(float x, float y, float z)
+	{
+		if (segments.length == 1)
+			return 0;
+		
+		return getLevelForW(wx*x + wy*y + wz*z + w0);
+	}
+	
+	
+	/**
+	 * @return The level to render the points inside <code>bounds</code> at,
+	 *         based on the point closest to the camera.
+	 */
+	int getLevel(BoundingBox bounds)
+	{
+		if (segments.length == 1)
+			return 0;
+		
+		// w is linear in the position, so the box's smallest w is found by
+		// picking the min or max coordinate separately for each axis.
+		float w = w0;
+		w += Math.min(wx*bounds.min.x, wx*bounds.max.x);
+		w += Math.min(wy*bounds.min.y, wy*bounds.max.y);
+		w += Math.min(wz*bounds.min.z, wz*bounds.max.z);
+		return getLevelForW(w);
+	}
+	
+	
+	private int getLevelForW(float w)
+	{
+		if (w <= 0)
+			return 0;
+		
+		float segmentsNeeded = pixelScale / w * SEGMENTS_PER_PIXEL;
+		
+		for (int level = segments.length - 1; level > 0; level--)
+		{
+			if (segments[level] >= segmentsNeeded)
+				return level;
+		}
+		
+		return 0;
+	}
+}
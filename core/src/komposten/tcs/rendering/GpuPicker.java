@@ -0,0 +1,326 @@
+/*
+ * Copyright 2019 Jakob Hjelm
+ * 
+ * This file is part of TetraColourSpace.
+ * 
+ * TetraColourSpace is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package komposten.tcs.rendering;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Camera;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.GL30;
+import com.badlogic.gdx.graphics.Pixmap.Format;
+import com.badlogic.gdx.graphics.glutils.FrameBuffer;
+import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.utils.BufferUtils;
+import com.badlogic.gdx.utils.Disposable;
+
+import komposten.tcs.backend.data.Point;
+import komposten.tcs.backend.data.PointGroup;
+import komposten.tcs.backend.data.PointStore;
+
+/**
+ * Finds the point under the crosshair by rendering the points' IDs (as
+ * colours) into a small frame buffer covering the area around the crosshair,
+ * and reading back the ID closest to the centre. Requires OpenGL 3.3 (see
+ * {@link #isSupported()}).
+ * <br />
+ * Unlike the line-distance search used otherwise, this only finds points that
+ * are visible, and the CPU cost does not depend on the number of points. The
+ * points are drawn as discs with the group's point size.
+ */
+class GpuPicker implements Disposable
+{
+	/** The width and height (in pixels) of the area around the crosshair. */
+	static final int PICK_SIZE = 31;
+	private static final int POINT_DATA_SIZE = 16;
+	/** The number of IDs that are reserved for points added to a group later. */
+	private static final int MIN_RESERVED_IDS = 1024;
+	private static final SharedShader PICK_SHADER = new SharedShader("pick");
+	
+	private final FrameBuffer frameBuffer;
+	private final ShaderProgram shader;
+	private final ByteBuffer pixels;
+	private final Matrix4 pickMatrix;
+	private final List<PickGroup> groups;
+	private int nextId;
+	
+	
+	GpuPicker()
+	{
+		frameBuffer = new FrameBuffer(Format.RGBA8888, PICK_SIZE, PICK_SIZE, true);
+		shader = PICK_SHADER.acquire();
+		pixels = BufferUtils.newByteBuffer(PICK_SIZE * PICK_SIZE * 4);
+		pickMatrix = new Matrix4();
+		groups = new ArrayList<>();
+		nextId = 1;
+	}
+	
+	
+	static boolean isSupported()
+	{
+		return Gdx.gl30 != null;
+	}
+	
+	
+	/**
+	 * Uploads the positions and IDs of the points in <code>group</code>, so they
+	 * can be picked. Must be called on the rendering thread.
+	 */
+	void addGroup(PointGroup group)
+	{
+		PointStore points = group.getStore();
+		GrowableBuffer buffer = new GrowableBuffer(createPointData(points, nextId, 0, points.size()));
+		
+		GL30 gl = Gdx.gl30;
+		int[] arrays = new int[1];
+		gl.glGenVertexArrays(1, arrays, 0);
+		
+		gl.glBindVertexArray(arrays[0]);
+		gl.glBindBuffer(GL20.GL_ARRAY_BUFFER, buffer.getBuffer());
+		gl.glEnableVertexAttribArray(0);
+		gl.glVertexAttribPointer(0, 3, GL20.GL_FLOAT, false, POINT_DATA_SIZE, 0);
+		gl.glEnableVertexAttribArray(1);
+		gl.glVertexAttribPointer(1, 4, GL20.GL_UNSIGNED_BYTE, true, POINT_DATA_SIZE, 12);
+		gl.glBindVertexArray(0);
+		gl.glBindBuffer(GL20.GL_ARRAY_BUFFER, 0);
+		
+		// The IDs in a group must be consecutive, so some are reserved for points
+		// added later.
+		int idCount = Math.max(points.size() * 2, MIN_RESERVED_IDS);
+		groups.add(new PickGroup(group, nextId, idCount, points.size(), arrays[0], buffer));
+		nextId += idCount;
+	}
+	
+	
+	/**
+	 * Uploads the points that have been added to <code>group</code>'s store
+	 * since the group was added or this was last called. Must be called on the
+	 * rendering thread.
+	 */
+	void appendPoints(PointGroup group)
+	{
+		PickGroup pickGroup = getPickGroup(group);
+		int count = group.getStore().size();
+		
+		if (pickGroup == null || count == pickGroup.pointCount)
+			return;
+		
+		if (count > pickGroup.idCount)
+		{
+			// Out of reserved IDs, so the group gets a new, larger range.
+			removeGroup(group);
+			addGroup(group);
+		}
+		else
+		{
+			pickGroup.buffer.append(createPointData(group.getStore(), pickGroup.firstId, pickGroup.pointCount, count));
+			pickGroup.pointCount = count;
+		}
+	}
+	
+	
+	private ByteBuffer createPointData(PointStore points, int firstId, int start, int end)
+	{
+		ByteBuffer data = BufferUtils.newByteBuffer(Math.max(end - start, 1) * POINT_DATA_SIZE);
+		
+		for (int i = start; i < end; i++)
+		{
+			int id = firstId + i;
+			data.putFloat(points.getX(i));
+			data.putFloat(points.getY(i));
+			data.putFloat(points.getZ(i));
+			data.put((byte) id);
+			data.put((byte) (id >>> 8));
+			data.put((byte) (id >>> 16));
+			data.put((byte) (id >>> 24));
+		}
+		data.flip();
+		
+		return data;
+	}
+	
+	
+	private PickGroup getPickGroup(PointGroup group)
+	{
+		for (PickGroup pickGroup : groups)
+		{
+			if (pickGroup.group == group)
+				return pickGroup;
+		}
+		
+		return null;
+	}
+	
+	
+	/**
+	 * Removes <code>group</code>'s points so they can no longer be picked. Must
+	 * be called on the rendering thread.
+	 */
+	void removeGroup(PointGroup group)
+	{
+		for (int i = 0; i < groups.size(); i++)
+		{
+			PickGroup pickGroup = groups.get(i);
+			if (pickGroup.group == group)
+			{
+				deleteBuffers(pickGroup);
+				groups.remove(i);
+				return;
+			}
+		}
+	}
+	
+	
+	/**
+	 * Renders the point IDs and reads back the point closest to the centre of
+	 * the screen. Must be called on the rendering thread, outside of any
+	 * {@link com.badlogic.gdx.graphics.g3d.ModelBatch ModelBatch} or
+	 * {@link com.badlogic.gdx.graphics.g2d.SpriteBatch SpriteBatch} begin/end.
+	 * @return The point closest to the crosshair, or <code>null</code> if there
+	 *         is no point within <code>PICK_SIZE/2</code> pixels of it.
+	 */
+	Point pick(Camera camera)
+	{
+		if (groups.isEmpty())
+			return null;
+		
+		// Zoom the projection in on the crosshair, so each pixel in the frame
+		// buffer matches a pixel on the screen.
+		int width = Gdx.graphics.getBackBufferWidth();
+		int height = Gdx.graphics.getBackBufferHeight();
+		pickMatrix.setToScaling(width / (float) PICK_SIZE, height / (float) PICK_SIZE, 1).mul(camera.combined);
+		float pixelScale = height * 0.5f * camera.projection.val[Matrix4.M11];
+		
+		GL30 gl = Gdx.gl30;
+		frameBuffer.begin();
+		gl.glClearColor(0, 0, 0, 0);
+		gl.glClear(GL20.GL_COLOR_BUFFER_BIT | GL20.GL_DEPTH_BUFFER_BIT);
+		gl.glEnable(GL20.GL_DEPTH_TEST);
+		gl.glDepthFunc(GL20.GL_LESS);
+		gl.glDepthMask(true);
+		gl.glDisable(GL20.GL_BLEND);
+		gl.glEnable(PointGroupRenderable.ShaderBased.GL_PROGRAM_POINT_SIZE);
+		
+		shader.begin();
+		shader.setUniformMatrix("u_projViewTrans", pickMatrix);
+		for (PickGroup group : groups)
+		{
+			shader.setUniformf("u_pointScale", group.group.getSize() * pixelScale);
+			gl.glBindVertexArray(group.vertexArray);
+			gl.glDrawArrays(GL20.GL_POINTS, 0, group.pointCount);
+		}
+		gl.glBindVertexArray(0);
+		shader.end();
+		
+		gl.glDisable(PointGroupRenderable.ShaderBased.GL_PROGRAM_POINT_SIZE);
+		gl.glDisable(GL20.GL_DEPTH_TEST);
+		
+		pixels.clear();
+		gl.glReadPixels(0, 0, PICK_SIZE, PICK_SIZE, GL20.GL_RGBA, GL20.GL_UNSIGNED_BYTE, pixels);
+		frameBuffer.end();
+		
+		return getPoint(findClosestId());
+	}
+	
+	
+	private int findClosestId()
+	{
+		int centre = PICK_SIZE / 2;
+		int closestId = 0;
+		int closestDistance = centre * centre + 1;
+		
+		for (int y = 0; y < PICK_SIZE; y++)
+		{
+			for (int x = 0; x < PICK_SIZE; x++)
+			{
+				int offset = (y * PICK_SIZE + x) * 4;
+				int id = (pixels.get(offset) & 0xFF) | (pixels.get(offset + 1) & 0xFF) << 8
+						| (pixels.get(offset + 2) & 0xFF) << 16 | (pixels.get(offset + 3) & 0xFF) << 24;
+				int distance = (x - centre) * (x - centre) + (y - centre) * (y - centre);
+				
+				if (id != 0 && distance < closestDistance)
+				{
+					closestId = id;
+					closestDistance = distance;
+				}
+			}
+		}
+		
+		return closestId;
+	}
+	
+	
+	private Point getPoint(int id)
+	{
+		if (id != 0)
+		{
+			for (PickGroup group : groups)
+			{
+				int index = id - group.firstId;
+				if (index >= 0 && index < group.pointCount)
+					return group.group.getPoint(index);
+			}
+		}
+		
+		return null;
+	}
+	
+	
+	@Override
+	public void dispose()
+	{
+		for (PickGroup group : groups)
+			deleteBuffers(group);
+		
+		frameBuffer.dispose();
+		PICK_SHADER.release();
+	}
+	
+	
+	private void deleteBuffers(PickGroup group)
+	{
+		Gdx.gl30.glDeleteVertexArrays(1, new int[] { group.vertexArray }, 0);
+		group.buffer.dispose();
+	}
+	
+	
+	private static class PickGroup
+	{
+		private final PointGroup group;
+		private final int firstId;
+		private final int idCount;
+		private final int vertexArray;
+		private final GrowableBuffer buffer;
+		private int pointCount;
+		
+		
+		PickGroup(PointGroup group, int firstId, int idCount, int pointCount, int vertexArray, GrowableBuffer buffer)
+		{
+			this.group = group;
+			this.firstId = firstId;
+			this.idCount = idCount;
+			this.pointCount = pointCount;
+			this.vertexArray = vertexArray;
+			this.buffer = buffer;
+		}
+	}
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2019 Jakob Hjelm
+ * 
+ * This file is part of TetraColourSpace.
+ * 
+ * TetraColourSpace is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package komposten.tcs.rendering;
+
+import java.nio.ByteBuffer;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.GL30;
+import com.badlogic.gdx.utils.Disposable;
+
+/**
+ * An OpenGL array buffer that data can be appended to. Requires OpenGL 3.
+ * <br />
+ * When the buffer is full its capacity is doubled and the old contents are
+ * copied on the GPU. The buffer keeps its name when it grows, so vertex arrays
+ * that use it remain valid.
+ * <br />
+ * All methods must be called on the rendering thread.
+ */
+class GrowableBuffer implements Disposable
+{
+	private static final int MIN_CAPACITY = 4096;
+	
+	private int buffer;
+	private int capacity;
+	private int size;
+	
+	
+	/**
+	 * Creates the buffer and fills it with <code>data</code> (from its position
+	 * to its limit).
+	 */
+	GrowableBuffer(ByteBuffer data)
+	{
+		buffer = Gdx.gl.glGenBuffer();
+		allocate(Math.max(data.remaining(), MIN_CAPACITY));
+		append(data);
+	}
+	
+	
+	/**
+	 * @return The name of the OpenGL buffer.
+	 */
+	int getBuffer()
+	{
+		return buffer;
+	}
+	
+	
+	/**
+	 * @return The number of bytes in the buffer.
+	 */
+	int getSize()
+	{
+		return size;
+	}
+	
+	
+	/**
+	 * Adds <code>data</code> (from its position to its limit) to the end of the
+	 * buffer. Leaves <code>GL_ARRAY_BUFFER</code> unbound.
+	 */
+	void append(ByteBuffer data)
+	{
+		int length = data.remaining();
+		if (length == 0)
+			return;
+		
+		if (size + length > capacity)
+			grow(size + length);
+		
+		Gdx.gl.glBindBuffer(GL20.GL_ARRAY_BUFFER, buffer);
+		Gdx.gl.glBufferSubData(GL20.GL_ARRAY_BUFFER, size, length, data);
+		Gdx.gl.glBindBuffer(GL20.GL_ARRAY_BUFFER, 0);
+		size += length;
+	}
+	
+	
+	private void grow(int minCapacity)
+	{
+		int newCapacity = capacity;
+		while (newCapacity < minCapacity)
+			newCapacity *= 2;
+		
+		// glBufferData() discards the contents, so they are kept in a temporary
+		// buffer meanwhile.
+		GL30 gl = Gdx.gl30;
+		int temporary = gl.glGenBuffer();
+		gl.glBindBuffer(GL30.GL_COPY_WRITE_BUFFER, temporary);
+		gl.glBufferData(GL30.GL_COPY_WRITE_BUFFER, size, null, GL30.GL_STREAM_COPY);
+		gl.glBindBuffer(GL30.GL_COPY_READ_BUFFER, buffer);
+		gl.glCopyBufferSubData(GL30.GL_COPY_READ_BUFFER, GL30.GL_COPY_WRITE_BUFFER, 0, 0, size);
+		
+		allocate(newCapacity);
+		
+		gl.glBindBuffer(GL30.GL_COPY_READ_BUFFER, temporary);
+		gl.glBindBuffer(GL30.GL_COPY_WRITE_BUFFER, buffer);
+		gl.glCopyBufferSubData(GL30.GL_COPY_READ_BUFFER, GL30.GL_COPY_WRITE_BUFFER, 0, 0, size);
+		gl.glBindBuffer(GL30.GL_COPY_READ_BUFFER, 0);
+		gl.glBindBuffer(GL30.GL_COPY_WRITE_BUFFER, 0);
+		gl.glDeleteBuffer(temporary);
+	}
+	
+	
+	private void allocate(int newCapacity)
+	{
+		capacity = newCapacity;
+		Gdx.gl.glBindBuffer(GL20.GL_ARRAY_BUFFER, buffer);
+		Gdx.gl.glBufferData(GL20.GL_ARRAY_BUFFER, capacity, null, GL20.GL_DYNAMIC_DRAW);
+		Gdx.gl.glBindBuffer(GL20.GL_ARRAY_BUFFER, 0);
+	}
+	
+	
+	@Override
+	public void dispose()
+	{
+		Gdx.gl.glDeleteBuffer(buffer);
+		buffer = 0;
+	}
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright 2019 Jakob Hjelm
+ * 
+ * This file is part of TetraColourSpace.
+ * 
+ * TetraColourSpace is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package komposten.tcs.rendering;
+
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Mesh;
+import com.badlogic.gdx.graphics.VertexAttribute;
+import com.badlogic.gdx.graphics.VertexAttributes;
+import com.badlogic.gdx.graphics.VertexAttributes.Usage;
+import com.badlogic.gdx.graphics.glutils.IndexData;
+import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+import com.badlogic.gdx.graphics.glutils.VertexBufferObjectWithVAO;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.math.collision.BoundingBox;
+import com.badlogic.gdx.utils.BufferUtils;
+import com.badlogic.gdx.utils.GdxRuntimeException;
+
+/**
+ * A static mesh with 32-bit indices, so it is not limited to 32767 vertices
+ * like libGDX's own meshes. Requires OpenGL 3 (see {@link #isSupported()}).
+ * <br />
+ * The bounding box and radius calculations read the 32-bit indices directly.
+ * Methods that return the indices as shorts (e.g.
+ * {@link #getIndices(short[])}) only work while all indices fit in 16 bits;
+ * use {@link #getIntIndicesBuffer()} instead.
+ */
+class IntIndexedMesh extends Mesh
+{
+	private final IntIndexBuffer indexData;
+	private final Vector3 tmpVector = new Vector3();
+	
+	
+	IntIndexedMesh(int vertexCount, int[] indices, VertexAttributes attributes)
+	{
+		this(vertexCount, new IntIndexBuffer(indices), attributes);
+	}
+	
+	
+	private IntIndexedMesh(int vertexCount, IntIndexBuffer indexData, VertexAttributes attributes)
+	{
+		super(new VertexBufferObjectWithVAO(true, vertexCount, attributes), indexData, false);
+		this.indexData = indexData;
+	}
+	
+	
+	static boolean isSupported()
+	{
+		return Gdx.gl30 != null;
+	}
+	
+	
+	/**
+	 * @return The indices. The buffer must not be modified.
+	 */
+	IntBuffer getIntIndicesBuffer()
+	{
+		return indexData.buffer;
+	}
+	
+	
+	@Override
+	public void render(ShaderProgram shader, int primitiveType, int offset, int count, boolean autoBind)
+	{
+		if (count == 0)
+			return;
+		
+		if (autoBind)
+			bind(shader);
+		
+		Gdx.gl20.glDrawElements(primitiveType, count, GL20.GL_UNSIGNED_INT, offset * 4);
+		
+		if (autoBind)
+			unbind(shader);
+	}
+	
+	
+	@Override
+	public void getIndices(int srcOffset, int count, short[] indices, int destOffset)
+	{
+		int max = getNumIndices();
+		if (count < 0)
+			count = max - srcOffset;
+		if (srcOffset < 0 || srcOffset >= max || srcOffset + count > max)
+			throw new IllegalArgumentException("Invalid range specified, offset: " + srcOffset + ", count: " + count
+					+ ", max: " + max);
+		if (indices.length - destOffset < count)
+			throw new IllegalArgumentException("not enough room in indices array, has " + indices.length
+					+ " shorts, needs " + count);
+		
+		for (int i = 0; i < count; i++)
+			indices[destOffset + i] = indexData.toShort(srcOffset + i);
+	}
+	
+	
+	@Override
+	public BoundingBox extendBoundingBox(BoundingBox out, int offset, int count, Matrix4 transform)
+	{
+		checkPart(offset, count);
+		
+		for (int i = offset; i < offset + count; i++)
+		{
+			Vector3 position = getPosition(i);
+			if (transform != null)
+				position.mul(transform);
+			out.ext(position);
+		}
+		
+		return out;
+	}
+	
+	
+	@Override
+	public float calculateRadiusSquared(float centerX, float centerY, float centerZ, int offset, int count,
+			Matrix4 transform)
+	{
+		checkPart(offset, count);
+		
+		float result = 0;
+		for (int i = offset; i < offset + count; i++)
+		{
+			Vector3 position = getPosition(i);
+			if (transform != null)
+				position.mul(transform);
+			result = Math.max(result, position.sub(centerX, centerY, centerZ).len2());
+		}
+		
+		return result;
+	}
+	
+	
+	private void checkPart(int offset, int count)
+	{
+		int max = (getNumIndices() == 0 ? getNumVertices() : getNumIndices());
+		if (offset < 0 || count < 1 || offset + count > max)
+			throw new GdxRuntimeException("Invalid part specified ( offset=" + offset + ", count=" + count + ", max="
+					+ max + " )");
+	}
+	
+	
+	/**
+	 * @param index The index of the index (or of the vertex if the mesh has no
+	 *          indices) to get the position of.
+	 * @return The position, in a shared temporary vector.
+	 */
+	private Vector3 getPosition(int index)
+	{
+		FloatBuffer vertices = getVerticesBuffer();
+		VertexAttribute positionAttribute = getVertexAttribute(Usage.Position);
+		int components = positionAttribute.numComponents;
+		
+		int vertex = (getNumIndices() > 0 ? indexData.buffer.get(index) : index);
+		int start = vertex * getVertexSize() / 4 + positionAttribute.offset / 4;
+		
+		return tmpVector.set(vertices.get(start), (components > 1 ? vertices.get(start + 1) : 0),
+				(components > 2 ? vertices.get(start + 2) : 0));
+	}
+	
+	
+	private static class IntIndexBuffer implements IndexData
+	{
+		private final IntBuffer buffer;
+		private ShortBuffer shortBuffer;
+		private int handle;
+		private boolean isDirty;
+		private boolean isBound;
+		
+		
+		IntIndexBuffer(int[] indices)
+		{
+			buffer = BufferUtils.newIntBuffer(indices.length);
+			buffer.put(indices).flip();
+			handle = Gdx.gl20.glGenBuffer();
+			isDirty = true;
+		}
+		
+		
+		@Override
+		public int getNumIndices()
+		{
+			return buffer.limit();
+		}
+		
+		
+		@Override
+		public int getNumMaxIndices()
+		{
+			return buffer.capacity();
+		}
+		
+		
+		@Override
+		public void setIndices(short[] indices, int offset, int count)
+		{
+			buffer.clear();
+			for (int i = 0; i < count; i++)
+				buffer.put(indices[offset + i] & 0xFFFF);
+			buffer.flip();
+			indicesChanged();
+		}
+		
+		
+		@Override
+		public void setIndices(ShortBuffer indices)
+		{
+			int position = indices.position();
+			
+			buffer.clear();
+			while (indices.hasRemaining())
+				buffer.put(indices.get() & 0xFFFF);
+			buffer.flip();
+			
+			indices.position(position);
+			indicesChanged();
+		}
+		
+		
+		@Override
+		public void updateIndices(int targetOffset, short[] indices, int offset, int count)
+		{
+			if (targetOffset < 0 || targetOffset + count > buffer.limit())
+				throw new IndexOutOfBoundsException("Can't update " + count + " indices at " + targetOffset
+						+ " in a buffer with " + buffer.limit() + " indices!");
+			
+			for (int i = 0; i < count; i++)
+				buffer.put(targetOffset + i, indices[offset + i] & 0xFFFF);
+			indicesChanged();
+		}
+		
+		
+		private void indicesChanged()
+		{
+			shortBuffer = null;
+			isDirty = true;
+			
+			if (isBound)
+				upload();
+		}
+		
+		
+		/**
+		 * @return A copy of the indices as shorts.
+		 * @throws IllegalStateException If an index does not fit in 16 bits.
+		 */
+		@Override
+		public ShortBuffer getBuffer()
+		{
+			if (shortBuffer == null)
+			{
+				ShortBuffer indices = BufferUtils.newShortBuffer(buffer.limit());
+				for (int i = 0; i < buffer.limit(); i++)
+					indices.put(toShort(i));
+				indices.flip();
+				shortBuffer = indices;
+			}
+			
+			return shortBuffer;
+		}
+		
+		
+		private short toShort(int index)
+		{
+			int value = buffer.get(index);
+			if (value > 0xFFFF)
+				throw new IllegalStateException("Index " + value + " does not fit in 16 bits!");
+			return (short) value;
+		}
+		
+		
+		@Override
+		public void bind()
+		{
+			Gdx.gl20.glBindBuffer(GL20.GL_ELEMENT_ARRAY_BUFFER, handle);
+			
+			if (isDirty)
+				upload();
+			
+			isBound = true;
+		}
+		
+		
+		private void upload()
+		{
+			Gdx.gl20.glBufferData(GL20.GL_ELEMENT_ARRAY_BUFFER, buffer.limit() * 4, buffer, GL20.GL_STATIC_DRAW);
+			isDirty = false;
+		}
+		
+		
+		@Override
+		public void unbind()
+		{
+			Gdx.gl20.glBindBuffer(GL20.GL_ELEMENT_ARRAY_BUFFER, 0);
+			isBound = false;
+		}
+		
+		
+		@Override
+		public void invalidate()
+		{
+			handle = Gdx.gl20.glGenBuffer();
+			isDirty = true;
+		}
+		
+		
+		@Override
+		public void dispose()
+		{
+			Gdx.gl20.glBindBuffer(GL20.GL_ELEMENT_ARRAY_BUFFER, 0);
+			Gdx.gl20.glDeleteBuffer(handle);
+			handle = 0;
+		}
+	}
+}
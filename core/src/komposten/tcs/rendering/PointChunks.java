@@ -0,0 +1,245 @@
+/*
+ * Copyright 2019 Jakob Hjelm
+ * 
+ * This file is part of TetraColourSpace.
+ * 
+ * TetraColourSpace is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package komposten.tcs.rendering;
+
+import java.util.Arrays;
+
+import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.collision.BoundingBox;
+
+import komposten.tcs.backend.data.PointStore;
+
+/**
+ * Divides the points in a {@link PointStore} into spatial chunks, so that
+ * nearby points can be handled together when rendering.
+ * <br />
+ * The chunks are the non-empty cells of a uniform grid over the points'
+ * bounding box, sized to hold around {@link #TARGET_CHUNK_SIZE} points each if
+ * the points were evenly spread out.
+ * <br />
+ * Points added to the store later can be added using
+ * {@link #append(PointStore)}. They are put in chunks of their own in the
+ * order they were added, since the existing chunks can't change without
+ * changing the order of the points in them.
+ */
+class PointChunks
+{
+	static final int TARGET_CHUNK_SIZE = 2048;
+	
+	private final float pointRadius;
+	/** The point indices, sorted by chunk. */
+	private int[] order;
+	/** The first index in {@link #order} for each chunk, plus the end index. */
+	private int[] starts;
+	private BoundingBox[] bounds;
+	private int chunkCount;
+	private int pointCount;
+	/** The first chunk created by {@link #append(PointStore)}. */
+	private int firstAppendedChunk;
+	
+	
+	/**
+	 * @param pointRadius The radius of the points, used to expand the chunks'
+	 *          bounds.
+	 */
+	PointChunks(PointStore points, float pointRadius)
+	{
+		this.pointRadius = pointRadius;
+		
+		int count = points.size();
+		BoundingBox total = new BoundingBox().inf();
+		for (int i = 0; i < count; i++)
+			total.ext(points.getX(i), points.getY(i), points.getZ(i));
+		
+		int cellsPerAxis = Math.max(1, MathUtils.round((float) Math.cbrt(count / (double) TARGET_CHUNK_SIZE)));
+		int[] pointCells = new int[count];
+		int[] cellCounts = new int[cellsPerAxis * cellsPerAxis * cellsPerAxis];
+		
+		for (int i = 0; i < count; i++)
+		{
+			int cx = getCell(points.getX(i), total.min.x, total.max.x, cellsPerAxis);
+			int cy = getCell(points.getY(i), total.min.y, total.max.y, cellsPerAxis);
+			int cz = getCell(points.getZ(i), total.min.z, total.max.z, cellsPerAxis);
+			int cell = (cz * cellsPerAxis + cy) * cellsPerAxis + cx;
+			pointCells[i] = cell;
+			cellCounts[cell]++;
+		}
+		
+		chunkCount = 0;
+		for (int cellCount : cellCounts)
+		{
+			if (cellCount > 0)
+				chunkCount++;
+		}
+		
+		// Counting sort of the points by cell, skipping the empty cells.
+		int[] cellChunks = new int[cellCounts.length];
+		int[] cellOffsets = new int[cellCounts.length];
+		starts = new int[chunkCount + 1];
+		bounds = new BoundingBox[chunkCount];
+		
+		int chunk = 0;
+		int offset = 0;
+		for (int cell = 0; cell < cellCounts.length; cell++)
+		{
+			if (cellCounts[cell] > 0)
+			{
+				cellChunks[cell] = chunk;
+				cellOffsets[cell] = offset;
+				starts[chunk] = offset;
+				bounds[chunk] = new BoundingBox().inf();
+				offset += cellCounts[cell];
+				chunk++;
+			}
+		}
+		starts[chunkCount] = count;
+		pointCount = count;
+		firstAppendedChunk = chunkCount;
+		
+		order = new int[count];
+		for (int i = 0; i < count; i++)
+		{
+			int cell = pointCells[i];
+			order[cellOffsets[cell]++] = i;
+			
+			float x = points.getX(i);
+			float y = points.getY(i);
+			float z = points.getZ(i);
+			BoundingBox chunkBounds = bounds[cellChunks[cell]];
+			chunkBounds.ext(x - pointRadius, y - pointRadius, z - pointRadius);
+			chunkBounds.ext(x + pointRadius, y + pointRadius, z + pointRadius);
+		}
+	}
+	
+	
+	/**
+	 * Adds the points that have been added to <code>points</code> since the
+	 * chunks were created or last appended to. The points are added to the last
+	 * appended chunk until it is full, and then to new chunks.
+	 * @return The first chunk that changed, or {@link #getChunkCount()} if no
+	 *         points were added.
+	 */
+	int append(PointStore points)
+	{
+		int firstChanged = chunkCount;
+		int count = points.size();
+		
+		if (count > order.length)
+			order = Arrays.copyOf(order, Math.max(count, order.length * 2));
+		
+		while (pointCount < count)
+		{
+			boolean lastIsFull = (chunkCount == firstAppendedChunk
+					|| getEnd(chunkCount - 1) - getStart(chunkCount - 1) >= TARGET_CHUNK_SIZE);
+			
+			if (lastIsFull)
+			{
+				if (chunkCount == bounds.length)
+				{
+					bounds = Arrays.copyOf(bounds, Math.max(chunkCount * 2, 4));
+					starts = Arrays.copyOf(starts, bounds.length + 1);
+				}
+				
+				bounds[chunkCount] = new BoundingBox().inf();
+				starts[chunkCount] = pointCount;
+				chunkCount++;
+			}
+			
+			int chunk = chunkCount - 1;
+			firstChanged = Math.min(firstChanged, chunk);
+			
+			int end = Math.min(count, getStart(chunk) + TARGET_CHUNK_SIZE);
+			for (int i = pointCount; i < end; i++)
+			{
+				order[i] = i;
+				
+				float x = points.getX(i);
+				float y = points.getY(i);
+				float z = points.getZ(i);
+				bounds[chunk].ext(x - pointRadius, y - pointRadius, z - pointRadius);
+				bounds[chunk].ext(x + pointRadius, y + pointRadius, z + pointRadius);
+			}
+			
+			pointCount = end;
+			starts[chunkCount] = pointCount;
+		}
+		
+		return firstChanged;
+	}
+	
+	
+	private static int getCell(float value, float min, float max, int cells)
+	{
+		if (max <= min)
+			return 0;
+		
+		return Math.min((int) ((value - min) / (max - min) * cells), cells - 1);
+	}
+	
+	
+	int getChunkCount()
+	{
+		return chunkCount;
+	}
+	
+	
+	/**
+	 * @return The number of points in the chunks.
+	 */
+	int getPointCount()
+	{
+		return pointCount;
+	}
+	
+	
+	/**
+	 * @return The index (in {@link #getOrder()}) of the first point in the chunk.
+	 */
+	int getStart(int chunk)
+	{
+		return starts[chunk];
+	}
+	
+	
+	/**
+	 * @return The index (in {@link #getOrder()}) after the last point in the
+	 *         chunk.
+	 */
+	int getEnd(int chunk)
+	{
+		return starts[chunk + 1];
+	}
+	
+	
+	BoundingBox getBounds(int chunk)
+	{
+		return bounds[chunk];
+	}
+	
+	
+	/**
+	 * @return The indices of all points, sorted so that the points in each chunk
+	 *         are adjacent. The array may be longer than the number of points,
+	 *         and is replaced by {@link #append(PointStore)} when it grows.
+	 */
+	int[] getOrder()
+	{
+		return order;
+	}
+}
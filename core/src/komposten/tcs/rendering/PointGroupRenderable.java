@@ -18,81 +18,234 @@
  */
 package komposten.tcs.rendering;
 
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Camera;
 import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.GL30;
 import com.badlogic.gdx.graphics.Mesh;
+import com.badlogic.gdx.graphics.VertexAttributes;
 import com.badlogic.gdx.graphics.VertexAttributes.Usage;
 import com.badlogic.gdx.graphics.g3d.Environment;
 import com.badlogic.gdx.graphics.g3d.Model;
 import com.badlogic.gdx.graphics.g3d.ModelBatch;
 import com.badlogic.gdx.graphics.g3d.ModelInstance;
 import com.badlogic.gdx.graphics.g3d.Renderable;
-import com.badlogic.gdx.graphics.g3d.utils.MeshBuilder;
-import com.badlogic.gdx.graphics.g3d.utils.ModelBuilder;
+import com.badlogic.gdx.graphics.g3d.attributes.ColorAttribute;
+import com.badlogic.gdx.graphics.g3d.attributes.DirectionalLightsAttribute;
+import com.badlogic.gdx.graphics.g3d.model.MeshPart;
+import com.badlogic.gdx.graphics.g3d.utils.RenderContext;
+import com.badlogic.gdx.graphics.glutils.ShaderProgram;
 import com.badlogic.gdx.math.MathUtils;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.math.collision.BoundingBox;
+import com.badlogic.gdx.utils.BufferUtils;
 import com.badlogic.gdx.utils.Disposable;
 
-import komposten.tcs.backend.data.Point;
 import komposten.tcs.backend.data.PointGroup;
+import komposten.tcs.backend.data.PointStore;
 import komposten.tcs.backend.data.Shape;
 import komposten.tcs.util.ModelInstanceFactory;
 import komposten.tcs.util.ShapeFactory;
 import komposten.tcs.util.TCSUtils;
 
 
+/**
+ * Renders the points in a {@link PointGroup}.
+ * <br />
+ * The renderable is created in two steps: {@link #prepare()} generates the
+ * point data without using OpenGL (so it can be called on any thread), and
+ * {@link #upload()} creates the OpenGL resources from that data on the
+ * rendering thread.
+ * <br />
+ * Points added to the group's store after that can be added using
+ * {@link #appendPoints()}, which only generates the data for the new points.
+ */
 public abstract class PointGroupRenderable implements Disposable
 {
+	/**
+	 * The octree is rebuilt when more points than this (and than the number of
+	 * points in the octree) have been appended, since appended points are
+	 * searched one by one.
+	 */
+	private static final int OCTREE_REBUILD_THRESHOLD = 4096;
+	
 	protected final Environment environment;
-	protected final Model model;
+	/**
+	 * The point model for each level of detail, from the most detailed. The
+	 * models are shared with other groups (see {@link SharedModels}).
+	 */
+	protected final Model[] models;
+	protected final DetailLevels detailLevels;
+	private final PointGroup group;
+	protected PointChunks chunks;
+	private PointOctree octree;
+	private int drawnChunks;
+	private int culledChunks;
 
 	public PointGroupRenderable(PointGroup data, int sphereSegments, Environment environment)
 	{
 		float size = data.getSize();
+		Shape shape = data.getShape();
 		
 		this.environment = environment;
-		this.model = createModel(data.getShape(), size, sphereSegments);
+		this.models = SharedModels.acquire(shape, size, sphereSegments);
+		this.detailLevels = new DetailLevels(size, ShapeFactory.getDetailLevels(shape, sphereSegments));
+		this.group = data;
+	}
+	
+	
+	public PointGroup getGroup()
+	{
+		return group;
+	}
+	
+	
+	/**
+	 * @return An octree over the group's points, or <code>null</code> if the
+	 *         group has not been {@link #prepare() prepared}.
+	 */
+	PointOctree getOctree()
+	{
+		return octree;
+	}
+	
+	
+	/**
+	 * Generates the data for the points in the group. This does not use OpenGL
+	 * and may be called on any thread.
+	 */
+	public void prepare()
+	{
+		chunks = new PointChunks(group.getStore(), group.getSize() / 2);
+		createDataPoints(group.getStore());
+		octree = new PointOctree(group.getStore());
+	}
+	
+	
+	/**
+	 * Generates and uploads the data for the points that have been added to the
+	 * group's store since the group was prepared or this was last called. Must
+	 * be called on the rendering thread, after {@link #upload()}.
+	 * <br />
+	 * The new points are put in chunks of their own, so only the data for the
+	 * last of the previously added chunks and the new chunks is generated.
+	 */
+	public void appendPoints()
+	{
+		PointStore points = group.getStore();
+		int start = chunks.getPointCount();
+		
+		if (start == points.size())
+			return;
+		
+		int firstChangedChunk = chunks.append(points);
+		appendDataPoints(points, start, firstChangedChunk);
 		
-		createDataPoints(data.getPoints());
+		int indexed = octree.getIndexedCount();
+		if (points.size() - indexed > Math.max(indexed, OCTREE_REBUILD_THRESHOLD))
+			octree = new PointOctree(points);
+	}
+	
+	
+	/**
+	 * Creates the OpenGL resources for the data generated by {@link #prepare()}.
+	 * Must be called on the rendering thread.
+	 */
+	public void upload()
+	{
 	}
 	
 
-	protected abstract void createDataPoints(List<Point> points);
-
-
-	private Model createModel(Shape shape, float size, int sphereSegments)
+	/**
+	 * Checks if a chunk of points is inside the camera's frustum and counts it
+	 * as drawn or culled.
+	 * @return <code>true</code> if the chunk should be drawn.
+	 */
+	protected boolean isChunkVisible(Camera camera, BoundingBox bounds)
 	{
-		ModelBuilder builder = new ModelBuilder();
-		float diameter = size;
-		
-		switch (shape)
+		if (camera.frustum.boundsInFrustum(bounds))
 		{
-			case BOX :
-				return ShapeFactory.createBox(builder, diameter*0.8f, GL20.GL_TRIANGLES);
-			case PYRAMID :
-				return ShapeFactory.createTetrahedron(builder, diameter*0.9f, GL20.GL_TRIANGLES);
-			case SPHERE :
-			default :
-				return ShapeFactory.createSphere(builder, diameter, GL20.GL_TRIANGLES, sphereSegments);
+			drawnChunks++;
+			return true;
 		}
+		
+		culledChunks++;
+		return false;
+	}
+	
+	
+	/**
+	 * Resets the chunk counters. Called before each {@link #render(ModelBatch)}.
+	 */
+	void resetChunkCounts()
+	{
+		drawnChunks = 0;
+		culledChunks = 0;
+	}
+	
+	
+	/**
+	 * @return The number of chunks drawn by the last {@link #render(ModelBatch)}.
+	 */
+	public int getDrawnChunks()
+	{
+		return drawnChunks;
+	}
+	
+	
+	/**
+	 * @return The number of chunks skipped by the last
+	 *         {@link #render(ModelBatch)} because they were outside the camera's
+	 *         frustum.
+	 */
+	public int getCulledChunks()
+	{
+		return culledChunks;
 	}
 	
 
+	protected abstract void createDataPoints(PointStore points);
+	
+	
+	/**
+	 * Generates and uploads the data for the points from <code>start</code> to
+	 * the end of <code>points</code>, which have already been added to
+	 * {@link #chunks}.
+	 * @param firstChangedChunk The first chunk that has new points.
+	 */
+	protected abstract void appendDataPoints(PointStore points, int start, int firstChangedChunk);
+	
+
 	public abstract void render(ModelBatch batch);
 	
 	
 	@Override
 	public void dispose()
 	{
-		model.dispose();
+		SharedModels.release(models);
 	}
 	
 	
+	/**
+	 * Creates one model instance per point. The points are divided into spatial
+	 * chunks, and only the points in chunks inside the camera's frustum are
+	 * rendered. The level of detail is chosen separately for each point.
+	 */
 	public static class MeshPerPoint extends PointGroupRenderable
 	{
+		private PointStore points;
 		private List<ModelInstance> pointModels;
+		private byte[] pointLevels;
 		
 		
 		public MeshPerPoint(PointGroup data, int sphereSegments, Environment environment)
@@ -102,15 +255,36 @@ public abstract class PointGroupRenderable implements Disposable
 		
 		
 		@Override
-		protected void createDataPoints(List<Point> points)
+		protected void createDataPoints(PointStore points)
 		{
+			Vector3 position = new Vector3();
+			
 			pointModels = new ArrayList<>(points.size());
-			for (Point point : points)
+			for (int i = 0; i < points.size(); i++)
+			{
+				ModelInstance instance = ModelInstanceFactory.create(models[0],
+						points.getCoordinates(i, position), points.getColour(i, new Color()));
+				pointModels.add(instance);
+			}
+			
+			this.points = points;
+			this.pointLevels = new byte[points.size()];
+		}
+		
+		
+		@Override
+		protected void appendDataPoints(PointStore points, int start, int firstChangedChunk)
+		{
+			Vector3 position = new Vector3();
+			
+			for (int i = start; i < points.size(); i++)
 			{
-				ModelInstance instance = ModelInstanceFactory.create(model,
-						point.getCoordinates(), point.getColour());
+				ModelInstance instance = ModelInstanceFactory.create(models[0],
+						points.getCoordinates(i, position), points.getColour(i, new Color()));
 				pointModels.add(instance);
 			}
+			
+			pointLevels = Arrays.copyOf(pointLevels, points.size());
 		}
 		
 		
@@ -118,115 +292,806 @@ public abstract class PointGroupRenderable implements Disposable
 		public void render(ModelBatch batch)
 		{
 			if (pointModels != null)
-				batch.render(pointModels, environment);
+			{
+				Camera camera = batch.getCamera();
+				int[] order = chunks.getOrder();
+				detailLevels.update(camera);
+				
+				for (int c = 0; c < chunks.getChunkCount(); c++)
+				{
+					if (!isChunkVisible(camera, chunks.getBounds(c)))
+						continue;
+					
+					for (int p = chunks.getStart(c); p < chunks.getEnd(c); p++)
+					{
+						int i = order[p];
+						updateDetailLevel(i);
+						batch.render(pointModels.get(i), environment);
+					}
+				}
+			}
+		}
+		
+		
+		private void updateDetailLevel(int i)
+		{
+			if (detailLevels.getLevelCount() == 1)
+				return;
+			
+			int level = detailLevels.getLevel(points.getX(i), points.getY(i), points.getZ(i));
+			if (level != pointLevels[i])
+			{
+				pointLevels[i] = (byte) level;
+				MeshPart meshPart = pointModels.get(i).nodes.first().parts.first().meshPart;
+				meshPart.set(models[level].meshParts.first());
+			}
 		}
 	}
 
 	
 	
+	/**
+	 * Combines the points into a small number of large meshes. The points are
+	 * divided into spatial chunks, each with one set of meshes per level of
+	 * detail, and the level is chosen separately for each chunk. Chunks outside
+	 * the camera's frustum are not rendered.
+	 * <br />
+	 * If supported, {@link IntIndexedMesh IntIndexedMeshes} are used so that
+	 * each chunk needs only one mesh per level. Otherwise the chunks are split
+	 * into meshes of at most 32767 vertices.
+	 */
 	public static class MeshPerGroup extends PointGroupRenderable
 	{
+		/** The maximum number of vertices in a mesh with 32-bit indices. */
+		private static final int MAX_INT_INDEXED_VERTICES = 1 << 21;
+		
+		private final boolean useIntIndices;
+		/** The meshes for each chunk and level of detail: [chunk][level]. */
+		private ChunkMeshes[][] chunkMeshes;
 		private List<Mesh> pointMeshes;
-		private List<Renderable> pointRenderables;
 		
 		
 		public MeshPerGroup(PointGroup data, int sphereSegments, Environment environment)
 		{
 			super(data, sphereSegments, environment);
+			this.useIntIndices = IntIndexedMesh.isSupported();
+		}
+		
+		
+		/**
+		 * @return The number of meshes created by {@link #upload()}, for all
+		 *         chunks and levels of detail.
+		 */
+		int getMeshCount()
+		{
+			return (pointMeshes != null ? pointMeshes.size() : 0);
 		}
 		
 		
 		@Override
-		protected void createDataPoints(List<Point> points)
+		protected void createDataPoints(PointStore points)
 		{
-			Mesh modelMesh = model.meshes.first();
-			
-			int floatsPerVertex = modelMesh.getVertexSize()/4;
-			int modelsPerMesh = Short.MAX_VALUE / modelMesh.getNumVertices();
-			float meshesNeeded = points.size() / (float)modelsPerMesh;
-			List<Mesh> meshes = new ArrayList<>(MathUtils.ceil(meshesNeeded));
+			chunkMeshes = new ChunkMeshes[chunks.getChunkCount()][models.length];
+			createChunks(points, 0);
+		}
+		
+		
+		@Override
+		protected void appendDataPoints(PointStore points, int start, int firstChangedChunk)
+		{
+			int oldChunkCount = chunkMeshes.length;
+			chunkMeshes = Arrays.copyOf(chunkMeshes, chunks.getChunkCount());
 			
-			float[] vertices = new float[modelMesh.getNumVertices() * floatsPerVertex];
-			short[] indices = new short[modelMesh.getNumIndices()];
+			// The last chunk may have been partly filled by the previous call, in
+			// which case its meshes are replaced.
+			for (int c = firstChangedChunk; c < oldChunkCount; c++)
+				disposeChunk(c);
+			for (int c = oldChunkCount; c < chunkMeshes.length; c++)
+				chunkMeshes[c] = new ChunkMeshes[models.length];
 			
-			int modelCount = 0;
-			int modelsInCurrentMesh = modelsPerMesh;
+			createChunks(points, firstChangedChunk);
+			uploadChunks(firstChangedChunk);
+		}
+		
+		
+		/**
+		 * Creates the mesh data for the chunks from <code>firstChunk</code> to
+		 * the last chunk.
+		 */
+		private void createChunks(PointStore points, int firstChunk)
+		{
+			for (int level = 0; level < models.length; level++)
+			{
+				Mesh modelMesh = models[level].meshes.first();
+				float[] modelVertices = modelMesh.getVertices(new float[modelMesh.getNumVertices() * modelMesh.getVertexSize()/4]);
+				short[] modelIndices = new short[modelMesh.getNumIndices()];
+				modelMesh.getIndices(modelIndices);
+				
+				for (int c = firstChunk; c < chunks.getChunkCount(); c++)
+				{
+					chunkMeshes[c][level] = createChunkMeshes(points, chunks.getStart(c), chunks.getEnd(c),
+							modelVertices, modelIndices, modelMesh.getVertexSize()/4);
+				}
+			}
+		}
+		
+		
+		private ChunkMeshes createChunkMeshes(PointStore points, int start, int end, float[] modelVertices,
+				short[] modelIndices, int floatsPerVertex)
+		{
+			int[] order = chunks.getOrder();
+			int verticesPerModel = modelVertices.length / floatsPerVertex;
+			int indicesPerModel = modelIndices.length;
+			int maxVertices = (useIntIndices ? MAX_INT_INDEXED_VERTICES : Short.MAX_VALUE);
+			int modelsPerMesh = Math.max(maxVertices / verticesPerModel, 1);
+			int meshCount = MathUtils.ceil((end - start) / (float)modelsPerMesh);
 			
-			MeshBuilder builder = new MeshBuilder();
-			builder.begin(Usage.Position | Usage.Normal | Usage.ColorUnpacked, GL20.GL_TRIANGLES);
+			Color colour = new Color();
+			ChunkMeshes meshes = new ChunkMeshes(meshCount, useIntIndices);
 			
-			for (Point point : points)
+			for (int m = 0; m < meshCount; m++)
 			{
-				if (modelCount >= modelsPerMesh)
+				int firstPoint = start + m * modelsPerMesh;
+				int modelCount = Math.min(modelsPerMesh, end - firstPoint);
+				float[] vertices = new float[modelCount * modelVertices.length];
+				int[] intIndices = (useIntIndices ? new int[modelCount * indicesPerModel] : null);
+				short[] shortIndices = (useIntIndices ? null : new short[modelCount * indicesPerModel]);
+				
+				for (int p = 0; p < modelCount; p++)
 				{
-					meshes.add(builder.end());
-					builder.begin(Usage.Position | Usage.Normal | Usage.ColorUnpacked, GL20.GL_TRIANGLES);
+					int i = order[firstPoint + p];
+					int vertexOffset = p * modelVertices.length;
+					int indexOffset = p * indicesPerModel;
+					points.getColour(i, colour);
 					
-					if (meshesNeeded > 1)
-						modelsInCurrentMesh = (int) (modelsPerMesh * meshesNeeded + 1);
+					System.arraycopy(modelVertices, 0, vertices, vertexOffset, modelVertices.length);
 					
-					builder.ensureVertices(modelsInCurrentMesh * modelMesh.getNumVertices());
-					builder.ensureIndices(modelsInCurrentMesh * modelMesh.getNumIndices());
+					for (int v = vertexOffset; v < vertexOffset + modelVertices.length; v += floatsPerVertex)
+					{
+						vertices[v+0] += points.getX(i);
+						vertices[v+1] += points.getY(i);
+						vertices[v+2] += points.getZ(i);
+						vertices[v+3] = colour.r;
+						vertices[v+4] = colour.g;
+						vertices[v+5] = colour.b;
+						vertices[v+6] = colour.a;
+					}
 					
-					modelCount = 0;
-					meshesNeeded--;
+					int firstVertex = p * verticesPerModel;
+					if (useIntIndices)
+					{
+						for (int j = 0; j < indicesPerModel; j++)
+							intIndices[indexOffset + j] = firstVertex + (modelIndices[j] & 0xFFFF);
+					}
+					else
+					{
+						for (int j = 0; j < indicesPerModel; j++)
+							shortIndices[indexOffset + j] = (short) (firstVertex + modelIndices[j]);
+					}
 				}
 				
-				modelMesh.getVertices(vertices);
-				modelMesh.getIndices(indices);
-				
-				for (int v = 0; v < modelMesh.getNumVertices(); v++)
+				meshes.vertexData[m] = vertices;
+				if (useIntIndices)
+					meshes.intIndexData[m] = intIndices;
+				else
+					meshes.shortIndexData[m] = shortIndices;
+			}
+			
+			return meshes;
+		}
+		
+		
+		@Override
+		public void upload()
+		{
+			pointMeshes = new ArrayList<>();
+			uploadChunks(0);
+		}
+		
+		
+		/**
+		 * Creates the meshes for the chunks from <code>firstChunk</code> to the
+		 * last chunk.
+		 */
+		private void uploadChunks(int firstChunk)
+		{
+			VertexAttributes attributes = models[0].meshes.first().getVertexAttributes();
+			int floatsPerVertex = attributes.vertexSize/4;
+			
+			for (int c = firstChunk; c < chunkMeshes.length; c++)
+			{
+				for (ChunkMeshes meshes : chunkMeshes[c])
 				{
-					vertices[v*floatsPerVertex+0] += point.getCoordinates().x;
-					vertices[v*floatsPerVertex+1] += point.getCoordinates().y;
-					vertices[v*floatsPerVertex+2] += point.getCoordinates().z;
-					vertices[v*floatsPerVertex+3] = point.getColour().r;
-					vertices[v*floatsPerVertex+4] = point.getColour().g;
-					vertices[v*floatsPerVertex+5] = point.getColour().b;
-					vertices[v*floatsPerVertex+6] = point.getColour().a;
+					for (int m = 0; m < meshes.renderables.length; m++)
+					{
+						float[] vertices = meshes.vertexData[m];
+						int vertexCount = vertices.length / floatsPerVertex;
+						
+						Mesh mesh;
+						if (useIntIndices)
+						{
+							mesh = new IntIndexedMesh(vertexCount, meshes.intIndexData[m], attributes);
+						}
+						else
+						{
+							short[] indices = meshes.shortIndexData[m];
+							mesh = new Mesh(true, vertexCount, indices.length, attributes);
+							mesh.setIndices(indices);
+						}
+						
+						mesh.setVertices(vertices);
+						pointMeshes.add(mesh);
+						
+						Renderable renderable = new Renderable();
+						renderable.meshPart.set("points", mesh, 0, mesh.getNumIndices(), GL20.GL_TRIANGLES);
+						renderable.material = TCSUtils.getMaterialForColour(Color.WHITE).copy();
+						renderable.environment = environment;
+						meshes.renderables[m] = renderable;
+					}
+					
+					meshes.vertexData = null;
+					meshes.shortIndexData = null;
+					meshes.intIndexData = null;
 				}
+			}
+		}
+		
+		
+		@Override
+		public void render(ModelBatch batch)
+		{
+			if (pointMeshes != null)
+			{
+				Camera camera = batch.getCamera();
+				detailLevels.update(camera);
 				
-				builder.addMesh(vertices, indices);
+				for (int c = 0; c < chunkMeshes.length; c++)
+				{
+					if (!isChunkVisible(camera, chunks.getBounds(c)))
+						continue;
+					
+					int level = detailLevels.getLevel(chunks.getBounds(c));
+					for (Renderable renderable : chunkMeshes[c][level].renderables)
+					{
+						batch.render(renderable);
+					}
+				}
+			}
+		}
+	
+	
+		private void disposeChunk(int chunk)
+		{
+			for (ChunkMeshes meshes : chunkMeshes[chunk])
+			{
+				for (Renderable renderable : meshes.renderables)
+				{
+					Mesh mesh = renderable.meshPart.mesh;
+					pointMeshes.remove(mesh);
+					mesh.dispose();
+				}
+			}
+		}
+	
+	
+		@Override
+		public void dispose()
+		{
+			super.dispose();
+			
+			if (pointMeshes != null)
+			{
+				for (Mesh mesh : pointMeshes)
+					mesh.dispose();
+			}
+		}
+		
+		
+		/**
+		 * The meshes for one chunk at one level of detail.
+		 */
+		private static class ChunkMeshes
+		{
+			private float[][] vertexData;
+			private short[][] shortIndexData;
+			private int[][] intIndexData;
+			private final Renderable[] renderables;
+			
+			
+			ChunkMeshes(int meshCount, boolean intIndices)
+			{
+				vertexData = new float[meshCount][];
+				if (intIndices)
+					intIndexData = new int[meshCount][];
+				else
+					shortIndexData = new short[meshCount][];
+				renderables = new Renderable[meshCount];
+			}
+		}
+	}
+	
+	
+	/**
+	 * Base class for renderables that draw the points using their own shader
+	 * instead of the {@link ModelBatch}. Requires OpenGL 3.3 (see
+	 * {@link #isSupported()}).
+	 */
+	public abstract static class ShaderBased extends PointGroupRenderable
+	{
+		/**
+		 * Bytes per point in buffers created by {@link #createPointBuffer(PointStore, int[])}:
+		 * the position (3 floats) and the colour (4 bytes).
+		 */
+		protected static final int POINT_DATA_SIZE = 16;
+		/** <code>GL_PROGRAM_POINT_SIZE</code>, which is missing from {@link GL30}. */
+		static final int GL_PROGRAM_POINT_SIZE = 0x8642;
+		
+		private final SharedShader sharedShader;
+		protected ShaderProgram shader;
+		
+		protected Color ambientLight;
+		protected Color lightColour;
+		protected Vector3 lightDirection;
+		
+		
+		protected ShaderBased(PointGroup data, int sphereSegments, Environment environment, SharedShader shader)
+		{
+			super(data, sphereSegments, environment);
+			this.sharedShader = shader;
+		}
+		
+		
+		/**
+		 * @return <code>true</code> if the current OpenGL context supports the
+		 *         shader-based renderables.
+		 */
+		public static boolean isSupported()
+		{
+			return Gdx.gl30 != null;
+		}
+		
+		
+		/**
+		 * Creates a buffer with the position and colour (as normalised bytes) of
+		 * each point.
+		 * @param order The order to store the points in, or <code>null</code> to
+		 *          store them in the same order as in <code>points</code>.
+		 */
+		protected static ByteBuffer createPointBuffer(PointStore points, int[] order)
+		{
+			return createPointBuffer(points, order, 0, points.size());
+		}
+		
+		
+		/**
+		 * Creates a buffer with the position and colour of the points at
+		 * positions <code>start</code> to <code>end</code> in <code>order</code>.
+		 * @see #createPointBuffer(PointStore, int[])
+		 */
+		protected static ByteBuffer createPointBuffer(PointStore points, int[] order, int start, int end)
+		{
+			ByteBuffer buffer = BufferUtils.newByteBuffer(Math.max(end - start, 1) * POINT_DATA_SIZE);
+			
+			for (int p = start; p < end; p++)
+			{
+				int i = (order != null ? order[p] : p);
+				int rgba = points.getColour(i);
+				buffer.putFloat(points.getX(i));
+				buffer.putFloat(points.getY(i));
+				buffer.putFloat(points.getZ(i));
+				buffer.put((byte) (rgba >>> 24));
+				buffer.put((byte) (rgba >>> 16));
+				buffer.put((byte) (rgba >>> 8));
+				buffer.put((byte) rgba);
+			}
+			
+			buffer.flip();
+			return buffer;
+		}
+		
+		
+		/**
+		 * Compiles (or reuses) the shader and reads the lights from the
+		 * environment. Must be called on the rendering thread.
+		 */
+		protected void acquireShader()
+		{
+			shader = sharedShader.acquire();
+			
+			ColorAttribute ambient = environment.get(ColorAttribute.class, ColorAttribute.AmbientLight);
+			DirectionalLightsAttribute lights = environment.get(DirectionalLightsAttribute.class, DirectionalLightsAttribute.Type);
+			
+			ambientLight = (ambient != null ? ambient.color.cpy() : new Color(Color.BLACK));
+			lightColour = new Color(Color.BLACK);
+			lightDirection = new Vector3(0, -1, 0);
+			
+			if (lights != null && lights.lights.size > 0)
+			{
+				lightColour.set(lights.lights.first().color);
+				lightDirection.set(lights.lights.first().direction);
+			}
+		}
+		
+		
+		/**
+		 * Sets up the render state, begins the shader and sets the
+		 * <code>u_projViewTrans</code>, <code>u_ambientLight</code> and
+		 * <code>u_lightColour</code> uniforms.
+		 */
+		protected void beginShader(ModelBatch batch)
+		{
+			RenderContext context = batch.getRenderContext();
+			context.setDepthTest(GL20.GL_LEQUAL);
+			context.setDepthMask(true);
+			context.setCullFace(GL20.GL_BACK);
+			context.setBlending(false, GL20.GL_SRC_ALPHA, GL20.GL_ONE_MINUS_SRC_ALPHA);
+			
+			shader.begin();
+			shader.setUniformMatrix("u_projViewTrans", batch.getCamera().combined);
+			shader.setUniformf("u_ambientLight", ambientLight.r, ambientLight.g, ambientLight.b);
+			shader.setUniformf("u_lightColour", lightColour.r, lightColour.g, lightColour.b);
+		}
+		
+		
+		@Override
+		public void dispose()
+		{
+			super.dispose();
+			
+			if (shader != null)
+			{
+				sharedShader.release();
+				shader = null;
+			}
+		}
+	}
+	
+	
+	/**
+	 * Uploads the shape mesh and the position and colour of each point once,
+	 * and draws the points using instanced draw calls. The points are divided
+	 * into spatial chunks and the level of detail is chosen separately for each
+	 * chunk, with one draw call per run of adjacent chunks at the same level.
+	 * Chunks outside the camera's frustum are skipped.
+	 */
+	public static class Instanced extends ShaderBased
+	{
+		private static final SharedShader INSTANCED_SHADER = new SharedShader("instanced");
+		/** Used as the level of culled chunks. */
+		private static final int CULLED = -1;
+		
+		private FloatBuffer[] shapeVertices;
+		private ShortBuffer[] shapeIndices;
+		private ByteBuffer pointData;
+		private int vertexSize;
+		private int positionOffset;
+		private int normalOffset;
+		private int[] indexCounts;
+		
+		/** One vertex array per level of detail. */
+		private int[] vertexArrays;
+		/** The vertex and index buffers for each level. */
+		private int[] buffers;
+		private GrowableBuffer instanceBuffer;
+		
+		
+		public Instanced(PointGroup data, int sphereSegments, Environment environment)
+		{
+			super(data, sphereSegments, environment, INSTANCED_SHADER);
+		}
+		
+		
+		@Override
+		protected void createDataPoints(PointStore points)
+		{
+			VertexAttributes attributes = models[0].meshes.first().getVertexAttributes();
+			vertexSize = attributes.vertexSize;
+			positionOffset = attributes.findByUsage(Usage.Position).offset;
+			normalOffset = attributes.findByUsage(Usage.Normal).offset;
+			
+			shapeVertices = new FloatBuffer[models.length];
+			shapeIndices = new ShortBuffer[models.length];
+			indexCounts = new int[models.length];
+			
+			for (int level = 0; level < models.length; level++)
+			{
+				Mesh modelMesh = models[level].meshes.first();
+				float[] vertices = modelMesh.getVertices(new float[modelMesh.getNumVertices() * vertexSize/4]);
+				short[] indices = new short[modelMesh.getNumIndices()];
+				modelMesh.getIndices(indices);
 				
-				modelCount++;
+				shapeVertices[level] = BufferUtils.newFloatBuffer(vertices.length);
+				shapeVertices[level].put(vertices).flip();
+				shapeIndices[level] = BufferUtils.newShortBuffer(indices.length);
+				shapeIndices[level].put(indices).flip();
+				indexCounts[level] = indices.length;
 			}
 			
-			meshes.add(builder.end());
+			pointData = createPointBuffer(points, chunks.getOrder());
+		}
+		
+		
+		@Override
+		protected void appendDataPoints(PointStore points, int start, int firstChangedChunk)
+		{
+			// The appended points are stored last in the order, in the order they
+			// were added.
+			instanceBuffer.append(createPointBuffer(points, null, start, points.size()));
+		}
+		
+		
+		@Override
+		public void upload()
+		{
+			acquireShader();
+			
+			GL30 gl = Gdx.gl30;
+			vertexArrays = new int[models.length];
+			gl.glGenVertexArrays(vertexArrays.length, vertexArrays, 0);
+			buffers = new int[models.length*2];
+			for (int i = 0; i < buffers.length; i++)
+				buffers[i] = gl.glGenBuffer();
 			
-			pointMeshes = meshes;
-			pointRenderables = new ArrayList<>(pointMeshes.size());
+			instanceBuffer = new GrowableBuffer(pointData);
 			
-			for (Mesh mesh : pointMeshes)
+			for (int level = 0; level < models.length; level++)
 			{
-				Renderable renderable = new Renderable();
-				renderable.meshPart.set("points", mesh, 0, mesh.getNumIndices(), GL20.GL_TRIANGLES);
-				renderable.material = TCSUtils.getMaterialForColour(Color.WHITE).copy();
-				renderable.environment = environment;
-				pointRenderables.add(renderable);
+				gl.glBindVertexArray(vertexArrays[level]);
+				
+				gl.glBindBuffer(GL20.GL_ARRAY_BUFFER, buffers[level*2]);
+				gl.glBufferData(GL20.GL_ARRAY_BUFFER, shapeVertices[level].limit() * 4, shapeVertices[level], GL20.GL_STATIC_DRAW);
+				gl.glEnableVertexAttribArray(0);
+				gl.glVertexAttribPointer(0, 3, GL20.GL_FLOAT, false, vertexSize, positionOffset);
+				gl.glEnableVertexAttribArray(1);
+				gl.glVertexAttribPointer(1, 3, GL20.GL_FLOAT, false, vertexSize, normalOffset);
+				
+				gl.glBindBuffer(GL20.GL_ARRAY_BUFFER, instanceBuffer.getBuffer());
+				gl.glEnableVertexAttribArray(2);
+				gl.glVertexAttribDivisor(2, 1);
+				gl.glEnableVertexAttribArray(3);
+				gl.glVertexAttribDivisor(3, 1);
+				setInstanceOffset(0);
+				
+				gl.glBindBuffer(GL20.GL_ELEMENT_ARRAY_BUFFER, buffers[level*2 + 1]);
+				gl.glBufferData(GL20.GL_ELEMENT_ARRAY_BUFFER, shapeIndices[level].limit() * 2, shapeIndices[level], GL20.GL_STATIC_DRAW);
 			}
+			
+			gl.glBindVertexArray(0);
+			gl.glBindBuffer(GL20.GL_ARRAY_BUFFER, 0);
+			gl.glBindBuffer(GL20.GL_ELEMENT_ARRAY_BUFFER, 0);
+			
+			shapeVertices = null;
+			shapeIndices = null;
+			pointData = null;
+		}
+		
+		
+		/**
+		 * Points the instance attributes of the bound vertex array at the
+		 * specified point in the instance buffer. OpenGL 3.3 has no base instance
+		 * for instanced draws, so this is used to draw a range of points.
+		 */
+		private void setInstanceOffset(int firstPoint)
+		{
+			int offset = firstPoint * POINT_DATA_SIZE;
+			Gdx.gl30.glVertexAttribPointer(2, 3, GL20.GL_FLOAT, false, POINT_DATA_SIZE, offset);
+			Gdx.gl30.glVertexAttribPointer(3, 4, GL20.GL_UNSIGNED_BYTE, true, POINT_DATA_SIZE, offset + 12);
 		}
 		
 		
 		@Override
 		public void render(ModelBatch batch)
 		{
-			if (pointRenderables != null)
+			if (vertexArrays == null || chunks.getChunkCount() == 0)
+				return;
+			
+			Camera camera = batch.getCamera();
+			detailLevels.update(camera);
+			
+			beginShader(batch);
+			shader.setUniformf("u_lightDirection", lightDirection);
+			Gdx.gl.glBindBuffer(GL20.GL_ARRAY_BUFFER, instanceBuffer.getBuffer());
+			
+			int chunkCount = chunks.getChunkCount();
+			int runStart = 0;
+			int runLevel = CULLED;
+			
+			for (int c = 0; c <= chunkCount; c++)
 			{
-				for (Renderable renderable : pointRenderables)
+				int level = CULLED;
+				if (c < chunkCount && isChunkVisible(camera, chunks.getBounds(c)))
+					level = detailLevels.getLevel(chunks.getBounds(c));
+				
+				if (level != runLevel)
 				{
-					batch.render(renderable);
+					if (runLevel != CULLED)
+						drawPoints(runLevel, chunks.getStart(runStart), chunks.getEnd(c - 1));
+					runStart = c;
+					runLevel = level;
 				}
 			}
+			
+			Gdx.gl30.glBindVertexArray(0);
+			Gdx.gl.glBindBuffer(GL20.GL_ARRAY_BUFFER, 0);
+			shader.end();
+		}
+		
+		
+		private void drawPoints(int level, int start, int end)
+		{
+			Gdx.gl30.glBindVertexArray(vertexArrays[level]);
+			setInstanceOffset(start);
+			Gdx.gl30.glDrawElementsInstanced(GL20.GL_TRIANGLES, indexCounts[level], GL20.GL_UNSIGNED_SHORT, 0, end - start);
 		}
+		
+		
+		@Override
+		public void dispose()
+		{
+			super.dispose();
+			
+			if (vertexArrays != null)
+			{
+				Gdx.gl30.glDeleteVertexArrays(vertexArrays.length, vertexArrays, 0);
+				for (int buffer : buffers)
+					Gdx.gl.glDeleteBuffer(buffer);
+				instanceBuffer.dispose();
+				vertexArrays = null;
+			}
+		}
+	}
 	
 	
+	/**
+	 * Draws each point as a single point sprite (i.e. one vertex per point). The
+	 * fragment shader fakes the silhouette and lighting of the group's shape.
+	 * <br />
+	 * The points are divided into spatial chunks, with one draw call per run of
+	 * adjacent chunks inside the camera's frustum.
+	 * <br />
+	 * Since the sprites always face the camera, boxes and pyramids are drawn as
+	 * squares and triangles. The maximum sprite size is limited by the OpenGL
+	 * implementation, so very close points may appear smaller than they are.
+	 */
+	public static class PointSprites extends ShaderBased
+	{
+		private static final SharedShader SPRITE_SHADER = new SharedShader("sprite");
+		
+		private static final int SPRITE_SPHERE = 0;
+		private static final int SPRITE_BOX = 1;
+		private static final int SPRITE_PYRAMID = 2;
+		
+		private final int spriteShape;
+		private final float diameter;
+		
+		private ByteBuffer pointData;
+		private int vertexArray;
+		private GrowableBuffer buffer;
+		
+		private IntBuffer viewport;
+		private Vector3 viewLightDirection;
+		
+		
+		public PointSprites(PointGroup data, int sphereSegments, Environment environment)
+		{
+			super(data, sphereSegments, environment, SPRITE_SHADER);
+			
+			switch (data.getShape())
+			{
+				case BOX :
+					spriteShape = SPRITE_BOX;
+					diameter = data.getSize()*0.8f;
+					break;
+				case PYRAMID :
+					spriteShape = SPRITE_PYRAMID;
+					diameter = data.getSize()*0.9f;
+					break;
+				case SPHERE :
+				default :
+					spriteShape = SPRITE_SPHERE;
+					diameter = data.getSize();
+					break;
+			}
+		}
+		
+		
+		@Override
+		protected void createDataPoints(PointStore points)
+		{
+			pointData = createPointBuffer(points, chunks.getOrder());
+		}
+		
+		
+		@Override
+		protected void appendDataPoints(PointStore points, int start, int firstChangedChunk)
+		{
+			buffer.append(createPointBuffer(points, null, start, points.size()));
+		}
+		
+		
+		@Override
+		public void upload()
+		{
+			acquireShader();
+			viewport = BufferUtils.newIntBuffer(16);
+			viewLightDirection = new Vector3();
+			
+			GL30 gl = Gdx.gl30;
+			int[] arrays = new int[1];
+			gl.glGenVertexArrays(1, arrays, 0);
+			vertexArray = arrays[0];
+			buffer = new GrowableBuffer(pointData);
+			
+			gl.glBindVertexArray(vertexArray);
+			gl.glBindBuffer(GL20.GL_ARRAY_BUFFER, buffer.getBuffer());
+			gl.glEnableVertexAttribArray(0);
+			gl.glVertexAttribPointer(0, 3, GL20.GL_FLOAT, false, POINT_DATA_SIZE, 0);
+			gl.glEnableVertexAttribArray(1);
+			gl.glVertexAttribPointer(1, 4, GL20.GL_UNSIGNED_BYTE, true, POINT_DATA_SIZE, 12);
+			
+			gl.glBindVertexArray(0);
+			gl.glBindBuffer(GL20.GL_ARRAY_BUFFER, 0);
+			
+			pointData = null;
+		}
+		
+		
+		@Override
+		public void render(ModelBatch batch)
+		{
+			if (vertexArray == 0 || chunks.getPointCount() == 0)
+				return;
+			
+			Camera camera = batch.getCamera();
+			
+			// The sprite size in pixels is pointScale / w, where w is the point's
+			// distance along the view direction (for perspective cameras).
+			Gdx.gl.glGetIntegerv(GL20.GL_VIEWPORT, viewport);
+			float pointScale = diameter * viewport.get(3) * 0.5f * camera.projection.val[Matrix4.M11];
+			viewLightDirection.set(lightDirection).rot(camera.view);
+			
+			beginShader(batch);
+			shader.setUniformf("u_pointScale", pointScale);
+			shader.setUniformi("u_shape", spriteShape);
+			shader.setUniformf("u_lightDirection", viewLightDirection);
+			
+			Gdx.gl.glEnable(GL_PROGRAM_POINT_SIZE);
+			Gdx.gl30.glBindVertexArray(vertexArray);
+			
+			int chunkCount = chunks.getChunkCount();
+			int runStart = -1;
+			for (int c = 0; c <= chunkCount; c++)
+			{
+				boolean visible = (c < chunkCount && isChunkVisible(camera, chunks.getBounds(c)));
+				
+				if (visible && runStart == -1)
+				{
+					runStart = chunks.getStart(c);
+				}
+				else if (!visible && runStart != -1)
+				{
+					Gdx.gl30.glDrawArrays(GL20.GL_POINTS, runStart, chunks.getEnd(c - 1) - runStart);
+					runStart = -1;
+				}
+			}
+			
+			Gdx.gl30.glBindVertexArray(0);
+			Gdx.gl.glDisable(GL_PROGRAM_POINT_SIZE);
+			shader.end();
+		}
+		
+		
 		@Override
 		public void dispose()
 		{
 			super.dispose();
 			
-			for (Mesh mesh : pointMeshes)
-				mesh.dispose();
+			if (vertexArray != 0)
+			{
+				Gdx.gl30.glDeleteVertexArrays(1, new int[] { vertexArray }, 0);
+				buffer.dispose();
+				vertexArray = 0;
+			}
 		}
 	}
 }
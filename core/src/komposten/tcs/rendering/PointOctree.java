@@ -0,0 +1,339 @@
+/*
+ * Copyright 2019 Jakob Hjelm
+ * 
+ * This file is part of TetraColourSpace.
+ * 
+ * TetraColourSpace is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package komposten.tcs.rendering;
+
+import java.util.Arrays;
+
+import com.badlogic.gdx.math.Vector3;
+
+import komposten.tcs.backend.data.PointStore;
+
+/**
+ * An octree over the points in a {@link PointStore}, used to quickly find the
+ * point closest to a line (e.g. the camera's line of sight).
+ * <br />
+ * Each node is split at the centre of its points' bounding box, and nodes
+ * with at most {@link #LEAF_SIZE} points (or at {@link #MAX_DEPTH}) are not
+ * split further. The nodes are stored in flat arrays, and the children of a
+ * node are stored next to each other.
+ */
+class PointOctree
+{
+	private static final int LEAF_SIZE = 16;
+	private static final int MAX_DEPTH = 20;
+	/**
+	 * Added to the distance bounds of the nodes to make sure that rounding
+	 * errors never cause a node with the closest point to be skipped.
+	 */
+	private static final float BOUND_MARGIN = 1e-5f;
+	
+	private final PointStore points;
+	/** The point indices, sorted so that the points in each node are adjacent. */
+	private final int[] order;
+	
+	private int nodeCount;
+	/** The centre and radius of each node's bounding sphere. */
+	private float[] nodeSpheres;
+	private int[] nodeStarts;
+	private int[] nodeEnds;
+	private int[] firstChildren;
+	private int[] childCounts;
+	
+	private final int[] stack = new int[MAX_DEPTH * 8 + 1];
+	private final float[] stackBounds = new float[stack.length];
+	private final int[] children = new int[8];
+	private final float[] childBounds = new float[8];
+	private final Vector3 calc1 = new Vector3();
+	private final Vector3 calc2 = new Vector3();
+	private final Vector3 calc3 = new Vector3();
+	private float closestDistance;
+	
+	
+	PointOctree(PointStore points)
+	{
+		this.points = points;
+		this.order = new int[points.size()];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		
+		int capacity = Math.max(16, order.length / LEAF_SIZE * 2);
+		nodeSpheres = new float[capacity * 4];
+		nodeStarts = new int[capacity];
+		nodeEnds = new int[capacity];
+		firstChildren = new int[capacity];
+		childCounts = new int[capacity];
+		
+		if (order.length > 0)
+		{
+			int root = addNode(0, order.length);
+			build(root, 0, new int[order.length]);
+		}
+	}
+	
+	
+	private int addNode(int start, int end)
+	{
+		if (nodeCount == nodeStarts.length)
+		{
+			int capacity = nodeCount * 2;
+			nodeSpheres = Arrays.copyOf(nodeSpheres, capacity * 4);
+			nodeStarts = Arrays.copyOf(nodeStarts, capacity);
+			nodeEnds = Arrays.copyOf(nodeEnds, capacity);
+			firstChildren = Arrays.copyOf(firstChildren, capacity);
+			childCounts = Arrays.copyOf(childCounts, capacity);
+		}
+		
+		nodeStarts[nodeCount] = start;
+		nodeEnds[nodeCount] = end;
+		return nodeCount++;
+	}
+	
+	
+	private void build(int node, int depth, int[] buffer)
+	{
+		int start = nodeStarts[node];
+		int end = nodeEnds[node];
+		
+		float minX = Float.POSITIVE_INFINITY, minY = minX, minZ = minX;
+		float maxX = Float.NEGATIVE_INFINITY, maxY = maxX, maxZ = maxX;
+		for (int i = start; i < end; i++)
+		{
+			int point = order[i];
+			minX = Math.min(minX, points.getX(point));
+			minY = Math.min(minY, points.getY(point));
+			minZ = Math.min(minZ, points.getZ(point));
+			maxX = Math.max(maxX, points.getX(point));
+			maxY = Math.max(maxY, points.getY(point));
+			maxZ = Math.max(maxZ, points.getZ(point));
+		}
+		
+		float centreX = (minX + maxX) / 2;
+		float centreY = (minY + maxY) / 2;
+		float centreZ = (minZ + maxZ) / 2;
+		nodeSpheres[node*4] = centreX;
+		nodeSpheres[node*4 + 1] = centreY;
+		nodeSpheres[node*4 + 2] = centreZ;
+		nodeSpheres[node*4 + 3] = Vector3.len(maxX - centreX, maxY - centreY, maxZ - centreZ);
+		
+		if (end - start <= LEAF_SIZE || depth == MAX_DEPTH)
+			return;
+		
+		// Counting sort of the node's points by octant.
+		int[] octantCounts = new int[8];
+		for (int i = start; i < end; i++)
+			octantCounts[getOctant(order[i], centreX, centreY, centreZ)]++;
+		
+		int[] octantStarts = new int[8];
+		int childCount = 0;
+		for (int octant = 0, offset = start; octant < 8; octant++)
+		{
+			octantStarts[octant] = offset;
+			offset += octantCounts[octant];
+			if (octantCounts[octant] > 0)
+				childCount++;
+		}
+		
+		// All points are in the same place, so the node can't be split.
+		if (childCount == 1)
+			return;
+		
+		int[] octantOffsets = octantStarts.clone();
+		for (int i = start; i < end; i++)
+		{
+			int point = order[i];
+			buffer[octantOffsets[getOctant(point, centreX, centreY, centreZ)]++] = point;
+		}
+		System.arraycopy(buffer, start, order, start, end - start);
+		
+		int firstChild = nodeCount;
+		for (int octant = 0; octant < 8; octant++)
+		{
+			if (octantCounts[octant] > 0)
+				addNode(octantStarts[octant], octantStarts[octant] + octantCounts[octant]);
+		}
+		
+		firstChildren[node] = firstChild;
+		childCounts[node] = childCount;
+		
+		for (int child = firstChild; child < firstChild + childCount; child++)
+			build(child, depth + 1, buffer);
+	}
+	
+	
+	private int getOctant(int point, float centreX, float centreY, float centreZ)
+	{
+		int octant = 0;
+		if (points.getX(point) > centreX)
+			octant |= 1;
+		if (points.getY(point) > centreY)
+			octant |= 2;
+		if (points.getZ(point) > centreZ)
+			octant |= 4;
+		return octant;
+	}
+	
+	
+	/**
+	 * Finds the point closest to the line through <code>point1</code> and
+	 * <code>point2</code>. If several points are equally close, the one with
+	 * the lowest index is chosen.
+	 * @param maxDistance Only points closer than this to the line are considered.
+	 * @return The index of the closest point, or -1 if no point is closer than
+	 *         <code>maxDistance</code>.
+	 * @see #getClosestDistance()
+	 */
+	int findClosestToLine(Vector3 point1, Vector3 point2, float maxDistance)
+	{
+		int closest = -1;
+		closestDistance = maxDistance;
+		
+		if (nodeCount == 0)
+			return findClosestAppended(point1, point2, closest);
+		
+		int stackSize = 0;
+		
+		stack[stackSize] = 0;
+		stackBounds[stackSize++] = getDistanceBound(0, point1, point2);
+		
+		while (stackSize > 0)
+		{
+			int node = stack[--stackSize];
+			if (stackBounds[stackSize] > closestDistance)
+				continue;
+			
+			if (childCounts[node] == 0)
+			{
+				for (int i = nodeStarts[node]; i < nodeEnds[node]; i++)
+				{
+					int point = order[i];
+					float distance = getDistance(point, point1, point2);
+					
+					if (distance < closestDistance || (distance == closestDistance && closest != -1 && point < closest))
+					{
+						closest = point;
+						closestDistance = distance;
+					}
+				}
+			}
+			else
+			{
+				// Push the children furthest first so the closest are searched
+				// first, which lets more of the other nodes be skipped.
+				int count = 0;
+				for (int child = firstChildren[node]; child < firstChildren[node] + childCounts[node]; child++)
+				{
+					float bound = getDistanceBound(child, point1, point2);
+					if (bound > closestDistance)
+						continue;
+					
+					int j = count++;
+					for (; j > 0 && childBounds[j-1] < bound; j--)
+					{
+						children[j] = children[j-1];
+						childBounds[j] = childBounds[j-1];
+					}
+					children[j] = child;
+					childBounds[j] = bound;
+				}
+				
+				for (int j = 0; j < count; j++)
+				{
+					stack[stackSize] = children[j];
+					stackBounds[stackSize++] = childBounds[j];
+				}
+			}
+		}
+		
+		return findClosestAppended(point1, point2, closest);
+	}
+	
+	
+	/**
+	 * Checks the points added to the store after the octree was built, which
+	 * are not in the tree.
+	 * @return The closest of <code>closest</code> and the added points.
+	 */
+	private int findClosestAppended(Vector3 point1, Vector3 point2, int closest)
+	{
+		for (int point = order.length; point < points.size(); point++)
+		{
+			float distance = getDistance(point, point1, point2);
+			if (distance < closestDistance)
+			{
+				closest = point;
+				closestDistance = distance;
+			}
+		}
+		
+		return closest;
+	}
+	
+	
+	/**
+	 * @return The number of points in the tree. Points added to the store after
+	 *         the tree was built are not in the tree, but are still searched.
+	 */
+	int getIndexedCount()
+	{
+		return order.length;
+	}
+	
+	
+	/**
+	 * @return The distance to the point found by the last call to
+	 *         {@link #findClosestToLine(Vector3, Vector3, float)}, or the
+	 *         <code>maxDistance</code> passed to it if no point was found.
+	 */
+	float getClosestDistance()
+	{
+		return closestDistance;
+	}
+	
+	
+	private float getDistance(int point, Vector3 point1, Vector3 point2)
+	{
+		float x = points.getX(point);
+		float y = points.getY(point);
+		float z = points.getZ(point);
+		return getDistance(x, y, z, point1, point2);
+	}
+	
+	
+	private float getDistance(float x, float y, float z, Vector3 point1, Vector3 point2)
+	{
+		calc1.set(x, y, z).sub(point1);
+		calc2.set(x, y, z).sub(point2);
+		calc1.crs(calc2);
+		
+		calc3.set(point2).sub(point1);
+		
+		return calc1.len() / calc3.len();
+	}
+	
+	
+	/**
+	 * @return A lower bound for the distance from the line to any point in the
+	 *         node.
+	 */
+	private float getDistanceBound(int node, Vector3 point1, Vector3 point2)
+	{
+		float distance = getDistance(nodeSpheres[node*4], nodeSpheres[node*4 + 1], nodeSpheres[node*4 + 2], point1, point2);
+		return distance - nodeSpheres[node*4 + 3] * (1 + BOUND_MARGIN) - BOUND_MARGIN;
+	}
+}
@@ -0,0 +1,630 @@
+/*
+ * Copyright 2019 Jakob Hjelm
+ * 
+ * This file is part of TetraColourSpace.
+ * 
+ * TetraColourSpace is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package komposten.tcs.rendering;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.Camera;
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.Pixmap.Format;
+import com.badlogic.gdx.graphics.g3d.ModelBatch;
+import com.badlogic.gdx.graphics.glutils.FrameBuffer;
+import com.badlogic.gdx.math.Matrix4;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.utils.BufferUtils;
+import com.badlogic.gdx.utils.Disposable;
+import com.badlogic.gdx.utils.Timer;
+
+import komposten.tcs.util.PngWriter;
+
+/**
+ * Renders a {@link World} off-screen and saves the result as a PNG image. The
+ * image is rendered at a higher resolution and scaled down to reduce aliasing.
+ * <br />
+ * To keep the memory usage down, the supersampled image is rendered in tiles
+ * using a small frame buffer. The tiles are read into a small pool of pixel
+ * buffers and handed to a pool of background threads, which scale them down
+ * and write the image rows to the file one strip of tiles at a time. The
+ * tiles of one image are always written in order, but several images can be
+ * written at the same time. When all buffers are in use, rendering waits
+ * until the background threads have caught up.
+ * <br />
+ * Screenshots can either be rendered all at once using
+ * {@link #render(World, Camera, ModelBatch, Color, int, int, File) render()},
+ * or be queued using
+ * {@link #takeScreenshot(Camera, Color, int, int, File) takeScreenshot()} and
+ * rendered a few tiles per frame using
+ * {@link #update(World, Camera, ModelBatch) update()}, so that interaction is
+ * not interrupted.
+ * <br />
+ * The frame buffer and pixel buffers are created when the first tile is
+ * rendered, and released once no screenshots have been taken for
+ * {@link #RELEASE_DELAY} seconds.
+ * <br />
+ * All methods must be called on the rendering thread.
+ */
+public class ScreenshotRenderer implements Disposable
+{
+	public static final int DEFAULT_WIDTH = 1080;
+	public static final int DEFAULT_SUPERSAMPLE = 10;
+	public static final int MAX_SUPERSAMPLE = 16;
+	/** The maximum width and height (in pixels) of the tile frame buffer. */
+	private static final int MAX_BUFFER_SIZE = 2048;
+	/**
+	 * The number of image pixels rendered outside each edge of a tile.
+	 * Point sprites are only drawn if their centre is inside the viewport, so
+	 * without this margin sprites crossing a tile edge would be cut off.
+	 */
+	private static final int TILE_MARGIN = 16;
+	private static final int ENCODER_THREADS = Math.max(1, Math.min(3, Runtime.getRuntime().availableProcessors() - 1));
+	/** The number of tiles that can be waiting for or being scaled down. */
+	private static final int TILE_BUFFERS = ENCODER_THREADS + 2;
+	/** The number of tiles rendered per call to {@link #update(World, Camera, ModelBatch)}. */
+	private static final int TILES_PER_UPDATE = 4;
+	private static final int MAX_PENDING_SCREENSHOTS = 4;
+	/** How long {@link #dispose()} waits for the remaining tiles to be written, in seconds. */
+	private static final int ENCODER_TIMEOUT = 10;
+	/** How long the buffers are kept after the last screenshot, in seconds. */
+	private static final float RELEASE_DELAY = 30;
+	
+	private final int supersample;
+	/** The width and height of a tile, in image pixels. */
+	private final int tileSize;
+	private final ExecutorService encoder;
+	private final BlockingQueue<ByteBuffer> freeBuffers;
+	/** Screenshots with tiles left to render. Only used on the rendering thread. */
+	private final Deque<Screenshot> screenshots;
+	private final Timer.Task releaseTask;
+	private FrameBuffer frameBuffer;
+	
+	private final CameraState cameraState = new CameraState();
+	private final Matrix4 tileProjection = new Matrix4();
+	private final Matrix4 tileCombined = new Matrix4();
+	
+	
+	/**
+	 * @param supersample The number of rendered pixels per image pixel along
+	 *          each axis, between 1 and {@link #MAX_SUPERSAMPLE}.
+	 */
+	public ScreenshotRenderer(int supersample)
+	{
+		if (supersample < 1 || supersample > MAX_SUPERSAMPLE)
+			throw new IllegalArgumentException("supersample must be between 1 and " + MAX_SUPERSAMPLE + "!");
+		
+		this.supersample = supersample;
+		this.tileSize = Math.max(MAX_BUFFER_SIZE / supersample - TILE_MARGIN * 2, 1);
+		this.freeBuffers = new ArrayBlockingQueue<>(TILE_BUFFERS);
+		this.screenshots = new ArrayDeque<>();
+		this.encoder = Executors.newFixedThreadPool(ENCODER_THREADS, runnable ->
+		{
+			Thread thread = new Thread(runnable, "Screenshot encoder");
+			thread.setDaemon(true);
+			return thread;
+		});
+		this.releaseTask = new Timer.Task()
+		{
+			@Override
+			public void run()
+			{
+				releaseBuffers();
+			}
+		};
+	}
+	
+	
+	/**
+	 * Renders <code>world</code> and saves it to <code>file</code>, and waits
+	 * until the image has been written. Any screenshots queued before this one
+	 * are finished first. The camera's aspect ratio should match
+	 * <code>width/height</code>.
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 * @throws IOException If the image could not be written.
+	 */
+	public void render(World world, Camera camera, ModelBatch batch, Color background, int width, int height,
+			File file) throws IOException
+	{
+		while (!canTakeScreenshot())
+			renderTiles(world, camera, batch, Integer.MAX_VALUE, true);
+		
+		CompletableFuture<Void> result = takeScreenshot(camera, background, width, height, file);
+		while (isBusy())
+			renderTiles(world, camera, batch, Integer.MAX_VALUE, true);
+		
+		try
+		{
+			result.get();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while saving " + file.getPath());
+		}
+		catch (ExecutionException e)
+		{
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+	
+	
+	/**
+	 * @return <code>false</code> if too many screenshots are already waiting
+	 *         to be rendered.
+	 */
+	public boolean canTakeScreenshot()
+	{
+		return screenshots.size() < MAX_PENDING_SCREENSHOTS;
+	}
+	
+	
+	/**
+	 * @return <code>true</code> if there are screenshots left to render.
+	 */
+	public boolean isBusy()
+	{
+		return !screenshots.isEmpty();
+	}
+	
+	
+	/**
+	 * Creates <code>file</code> and queues a screenshot of the camera's current
+	 * view, to be rendered by {@link #update(World, Camera, ModelBatch)}. The
+	 * camera's aspect ratio should match <code>width/height</code>.
+	 * @param width The width of the image.
+	 * @param height The height of the image.
+	 * @return A future that is completed once the image has been written, or
+	 *         completed exceptionally if it could not be written.
+	 * @throws IOException If the file could not be created.
+	 * @throws IllegalStateException If {@link #canTakeScreenshot()} returns
+	 *           <code>false</code>.
+	 */
+	public CompletableFuture<Void> takeScreenshot(Camera camera, Color background, int width, int height,
+			File file) throws IOException
+	{
+		if (!canTakeScreenshot())
+			throw new IllegalStateException("There are already " + screenshots.size() + " pending screenshots!");
+		
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (parent != null)
+			parent.mkdirs();
+		
+		PngWriter png = new PngWriter(new BufferedOutputStream(new FileOutputStream(file)), width, height);
+		Screenshot screenshot = new Screenshot(camera, background, width, height, file, png);
+		screenshots.add(screenshot);
+		return screenshot.result;
+	}
+	
+	
+	/**
+	 * Renders the next few tiles of the queued screenshots. Returns early if
+	 * the background threads have not yet finished with the previous tiles.
+	 * Must be called outside of any {@link ModelBatch} begin/end.
+	 */
+	public void update(World world, Camera camera, ModelBatch batch)
+	{
+		update(world, camera, batch, TILES_PER_UPDATE);
+	}
+	
+	
+	/**
+	 * Renders up to <code>maxTiles</code> tiles of the queued screenshots.
+	 * @see #update(World, Camera, ModelBatch)
+	 */
+	public void update(World world, Camera camera, ModelBatch batch, int maxTiles)
+	{
+		renderTiles(world, camera, batch, maxTiles, false);
+	}
+	
+	
+	private void renderTiles(World world, Camera camera, ModelBatch batch, int maxTiles, boolean wait)
+	{
+		if (screenshots.isEmpty())
+			return;
+		
+		releaseTask.cancel();
+		if (frameBuffer == null)
+		{
+			int bufferSize = (tileSize + TILE_MARGIN * 2) * supersample;
+			frameBuffer = new FrameBuffer(Format.RGBA8888, bufferSize, bufferSize, true);
+			for (int i = 0; i < TILE_BUFFERS; i++)
+				freeBuffers.add(BufferUtils.newByteBuffer(tileSize * tileSize * supersample * supersample * 4));
+		}
+		
+		cameraState.set(camera);
+		Gdx.gl.glLineWidth(supersample);
+		
+		try
+		{
+			for (int tiles = 0; tiles < maxTiles && !screenshots.isEmpty(); tiles++)
+			{
+				Screenshot screenshot = screenshots.peek();
+				if (screenshot.result.isDone())
+				{
+					// Writing the image failed, so there is no point in rendering the rest.
+					screenshots.remove();
+					continue;
+				}
+				
+				ByteBuffer pixels = (wait ? freeBuffers.take() : freeBuffers.poll());
+				if (pixels == null)
+					break;
+				
+				renderTile(screenshot, world, camera, batch, pixels);
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			Gdx.gl.glLineWidth(1);
+			cameraState.apply(camera);
+			
+			if (screenshots.isEmpty())
+				Timer.schedule(releaseTask, RELEASE_DELAY);
+		}
+	}
+	
+	
+	/**
+	 * Releases the frame buffer and pixel buffers, or tries again later if the
+	 * encoder is still using some of the pixel buffers.
+	 */
+	private void releaseBuffers()
+	{
+		if (frameBuffer == null || isBusy())
+			return;
+		
+		if (freeBuffers.size() < TILE_BUFFERS)
+		{
+			Timer.schedule(releaseTask, RELEASE_DELAY);
+			return;
+		}
+		
+		frameBuffer.dispose();
+		frameBuffer = null;
+		freeBuffers.clear();
+	}
+	
+	
+	/**
+	 * Renders the next tile of <code>screenshot</code>, reads the (supersampled)
+	 * pixels into <code>pixels</code> and passes them on to the encoder.
+	 */
+	private void renderTile(Screenshot screenshot, World world, Camera camera, ModelBatch batch, ByteBuffer pixels)
+	{
+		int width = screenshot.width;
+		int height = screenshot.height;
+		int x = screenshot.nextX;
+		int tileWidth = Math.min(tileSize, width - x);
+		int tileHeight = Math.min(tileSize, height - screenshot.nextTop);
+		int y = height - screenshot.nextTop - tileHeight;
+		int renderWidth = tileWidth + TILE_MARGIN * 2;
+		int renderHeight = tileHeight + TILE_MARGIN * 2;
+		
+		// Scales and translates the projection so the tile and its margins
+		// cover the entire viewport. The projection matrix is updated as well,
+		// since the point size calculations depend on it.
+		float centreX = (2 * x + tileWidth) / (float) width - 1;
+		float centreY = (2 * y + tileHeight) / (float) height - 1;
+		tileProjection.setToScaling(width / (float) renderWidth, height / (float) renderHeight, 1)
+				.translate(-centreX, -centreY, 0);
+		tileCombined.set(tileProjection).mul(screenshot.camera.combined);
+		tileProjection.mul(screenshot.camera.projection);
+		screenshot.camera.apply(camera);
+		setCameraMatrices(camera, tileProjection, tileCombined);
+		
+		frameBuffer.begin();
+		Gdx.gl.glViewport(0, 0, renderWidth * supersample, renderHeight * supersample);
+		Color background = screenshot.background;
+		Gdx.gl.glClearColor(background.r, background.g, background.b, background.a);
+		Gdx.gl.glClear(GL20.GL_COLOR_BUFFER_BIT | GL20.GL_DEPTH_BUFFER_BIT);
+		
+		batch.begin(camera);
+		world.render(batch, true);
+		batch.end();
+		
+		pixels.clear();
+		Gdx.gl.glReadPixels(TILE_MARGIN * supersample, TILE_MARGIN * supersample, tileWidth * supersample,
+				tileHeight * supersample, GL20.GL_RGBA, GL20.GL_UNSIGNED_BYTE, pixels);
+		frameBuffer.end();
+		
+		// PNG images are stored from the top, so the strips are rendered from
+		// the top as well.
+		boolean lastInStrip = (x + tileWidth == width);
+		boolean lastTile = lastInStrip && (y == 0);
+		if (lastInStrip)
+		{
+			screenshot.nextX = 0;
+			screenshot.nextTop += tileHeight;
+		}
+		else
+		{
+			screenshot.nextX += tileWidth;
+		}
+		
+		if (lastTile)
+			screenshots.remove();
+		
+		screenshot.encode(() -> encodeTile(screenshot, pixels, x, tileWidth, tileHeight, lastInStrip, lastTile));
+	}
+	
+	
+	/**
+	 * Scales down a tile and writes the strip to the image if the tile is the
+	 * last one in the strip. Runs on an encoder thread.
+	 */
+	private void encodeTile(Screenshot screenshot, ByteBuffer pixels, int x, int tileWidth, int tileHeight,
+			boolean lastInStrip, boolean lastTile)
+	{
+		try
+		{
+			if (screenshot.result.isDone())
+				return;
+			
+			downsampleTile(pixels, screenshot.strip, screenshot.width, x, tileWidth, tileHeight);
+			
+			if (lastInStrip)
+			{
+				for (int row = 0; row < tileHeight; row++)
+					screenshot.png.writeRow(screenshot.strip, row * screenshot.width * 4);
+			}
+			
+			if (lastTile)
+			{
+				screenshot.png.close();
+				screenshot.result.complete(null);
+			}
+		}
+		catch (IOException | RuntimeException e)
+		{
+			screenshot.abort(e);
+		}
+		finally
+		{
+			freeBuffers.add(pixels);
+		}
+	}
+	
+	
+	/**
+	 * Averages each <code>supersample x supersample</code> block of pixels in
+	 * <code>pixels</code> and stores the result in <code>strip</code>, flipped
+	 * so that the top row comes first.
+	 */
+	private void downsampleTile(ByteBuffer pixels, byte[] strip, int stripWidth, int x, int tileWidth,
+			int tileHeight)
+	{
+		int readWidth = tileWidth * supersample;
+		int samples = supersample * supersample;
+		int[] sums = new int[tileWidth * 4];
+		
+		for (int row = 0; row < tileHeight; row++)
+		{
+			Arrays.fill(sums, 0);
+			
+			for (int sy = row * supersample; sy < (row + 1) * supersample; sy++)
+			{
+				int offset = sy * readWidth * 4;
+				for (int sx = 0; sx < readWidth; sx++)
+				{
+					int sum = (sx / supersample) * 4;
+					for (int c = 0; c < 4; c++)
+						sums[sum + c] += pixels.get(offset++) & 0xFF;
+				}
+			}
+			
+			int stripOffset = ((tileHeight - 1 - row) * stripWidth + x) * 4;
+			for (int i = 0; i < sums.length; i++)
+				strip[stripOffset + i] = (byte) ((sums[i] + samples / 2) / samples);
+		}
+	}
+	
+	
+	private static void setCameraMatrices(Camera camera, Matrix4 projection, Matrix4 combined)
+	{
+		camera.projection.set(projection);
+		camera.combined.set(combined);
+		camera.invProjectionView.set(combined).inv();
+		camera.frustum.update(camera.invProjectionView);
+	}
+	
+	
+	/**
+	 * Cancels the screenshots that have not been fully rendered, and waits for
+	 * the rest to be written.
+	 */
+	@Override
+	public void dispose()
+	{
+		releaseTask.cancel();
+		for (Screenshot screenshot : screenshots)
+		{
+			screenshot.encode(() -> screenshot.abort(new CancellationException("The screenshot renderer was disposed.")));
+		}
+		screenshots.clear();
+		
+		encoder.shutdown();
+		try
+		{
+			encoder.awaitTermination(ENCODER_TIMEOUT, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		
+		if (frameBuffer != null)
+		{
+			frameBuffer.dispose();
+			frameBuffer = null;
+			freeBuffers.clear();
+		}
+	}
+	
+	
+	/**
+	 * The parts of a camera's state that affect rendering.
+	 */
+	private static class CameraState
+	{
+		private final Vector3 position = new Vector3();
+		private final Vector3 direction = new Vector3();
+		private final Vector3 up = new Vector3();
+		private final Matrix4 view = new Matrix4();
+		private final Matrix4 projection = new Matrix4();
+		private final Matrix4 combined = new Matrix4();
+		
+		
+		void set(Camera camera)
+		{
+			position.set(camera.position);
+			direction.set(camera.direction);
+			up.set(camera.up);
+			view.set(camera.view);
+			projection.set(camera.projection);
+			combined.set(camera.combined);
+		}
+		
+		
+		void apply(Camera camera)
+		{
+			camera.position.set(position);
+			camera.direction.set(direction);
+			camera.up.set(up);
+			camera.view.set(view);
+			setCameraMatrices(camera, projection, combined);
+		}
+	}
+	
+	
+	private class Screenshot
+	{
+		private final CameraState camera;
+		private final Color background;
+		private final int width;
+		private final int height;
+		private final File file;
+		private final PngWriter png;
+		private final CompletableFuture<Void> result;
+		/** Encoder tasks waiting for the previous task to finish. Guarded by <code>this</code>. */
+		private final Queue<Runnable> tasks;
+		private boolean draining;
+		
+		/** The image rows of the current strip. Only used by the encoder threads. */
+		private final byte[] strip;
+		/** The position of the next tile to render. Only used on the rendering thread. */
+		private int nextX;
+		private int nextTop;
+		
+		
+		Screenshot(Camera camera, Color background, int width, int height, File file, PngWriter png)
+		{
+			this.camera = new CameraState();
+			this.camera.set(camera);
+			this.background = background.cpy();
+			this.width = width;
+			this.height = height;
+			this.file = file;
+			this.png = png;
+			this.result = new CompletableFuture<>();
+			this.tasks = new ArrayDeque<>();
+			this.strip = new byte[width * Math.min(tileSize, height) * 4];
+		}
+		
+		
+		/**
+		 * Runs <code>task</code> on an encoder thread once the previous task for
+		 * this screenshot has finished.
+		 */
+		void encode(Runnable task)
+		{
+			synchronized (this)
+			{
+				tasks.add(task);
+				if (draining)
+					return;
+				draining = true;
+			}
+			
+			encoder.execute(this::runTasks);
+		}
+		
+		
+		private void runTasks()
+		{
+			while (true)
+			{
+				Runnable task;
+				synchronized (this)
+				{
+					task = tasks.poll();
+					if (task == null)
+					{
+						draining = false;
+						return;
+					}
+				}
+				
+				task.run();
+			}
+		}
+		
+		
+		/**
+		 * Closes and deletes the unfinished image. Runs on an encoder thread.
+		 */
+		void abort(Exception cause)
+		{
+			try
+			{
+				png.close();
+			}
+			catch (IOException e)
+			{
+				// Expected, since not all rows have been written.
+			}
+			
+			file.delete();
+			result.completeExceptionally(cause);
+		}
+	}
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright 2019 Jakob Hjelm
+ * 
+ * This file is part of TetraColourSpace.
+ * 
+ * TetraColourSpace is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package komposten.tcs.rendering;
+
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import com.badlogic.gdx.graphics.GL20;
+import com.badlogic.gdx.graphics.g3d.Model;
+import com.badlogic.gdx.graphics.g3d.utils.ModelBuilder;
+
+import komposten.tcs.backend.data.Shape;
+import komposten.tcs.util.ShapeFactory;
+
+/**
+ * Reference-counted point models, shared by all point groups with the same
+ * shape, size and sphere quality. The models for a combination are created
+ * on the first {@link #acquire(Shape, float, int)} and disposed when the last
+ * user {@link #release(Model[])}s them.
+ * <br />
+ * Like the rest of the rendering code this must only be used on the render
+ * thread.
+ */
+class SharedModels
+{
+	private static final Map<Key, Entry> entries = new HashMap<>();
+	private static final Map<Model[], Entry> owners = new IdentityHashMap<>();
+	
+	
+	private SharedModels() {}
+	
+	
+	/**
+	 * @return One model per level of detail, from the most detailed (see
+	 *         {@link ShapeFactory#createShapeLevels(ModelBuilder, Shape, float, int, int)}).
+	 *         The models must not be modified or disposed.
+	 */
+	static Model[] acquire(Shape shape, float size, int sphereSegments)
+	{
+		Key key = new Key(shape, size, sphereSegments);
+		Entry entry = entries.get(key);
+		
+		if (entry == null)
+		{
+			Model[] models = ShapeFactory.createShapeLevels(new ModelBuilder(), shape, size, GL20.GL_TRIANGLES,
+					sphereSegments);
+			entry = new Entry(key, models);
+			entries.put(key, entry);
+			owners.put(models, entry);
+		}
+		
+		entry.users++;
+		return entry.models;
+	}
+	
+	
+	/**
+	 * Releases models returned by {@link #acquire(Shape, float, int)}.
+	 */
+	static void release(Model[] models)
+	{
+		Entry entry = owners.get(models);
+		if (entry == null)
+			throw new IllegalArgumentException("The models are not shared or have already been released!");
+		
+		if (--entry.users == 0)
+		{
+			entries.remove(entry.key);
+			owners.remove(models);
+			for (Model model : entry.models)
+				model.dispose();
+		}
+	}
+	
+	
+	private static class Key
+	{
+		private final Shape shape;
+		private final float size;
+		private final int sphereSegments;
+		
+		
+		Key(Shape shape, float size, int sphereSegments)
+		{
+			this.shape = shape;
+			this.size = size;
+			// Boxes and pyramids do not depend on the sphere quality.
+			this.sphereSegments = (shape == Shape.SPHERE ? sphereSegments : 0);
+		}
+		
+		
+		@Override
+		public boolean equals(Object obj)
+		{
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Key))
+				return false;
+			
+			Key other = (Key) obj;
+			return shape == other.shape && Float.compare(size, other.size) == 0
+					&& sphereSegments == other.sphereSegments;
+		}
+		
+		
+		@Override
+		public int hashCode()
+		{
+			return Objects.hash(shape, size, sphereSegments);
+		}
+	}
+	
+	
+	private static class Entry
+	{
+		private final Key key;
+		private final Model[] models;
+		private int users;
+		
+		
+		Entry(Key key, Model[] models)
+		{
+			this.key = key;
+			this.models = models;
+		}
+	}
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2019 Jakob Hjelm
+ * 
+ * This file is part of TetraColourSpace.
+ * 
+ * TetraColourSpace is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package komposten.tcs.rendering;
+
+import com.badlogic.gdx.Gdx;
+import com.badlogic.gdx.graphics.glutils.ShaderProgram;
+
+/**
+ * A reference-counted shader program loaded from
+ * <code>shaders/&lt;name&gt;.vert</code> and
+ * <code>shaders/&lt;name&gt;.frag</code>. The program is compiled on the first
+ * {@link #acquire()} and disposed when the last user {@link #release()}s it.
+ */
+class SharedShader
+{
+	private final String name;
+	private ShaderProgram program;
+	private int users;
+	
+	
+	SharedShader(String name)
+	{
+		this.name = name;
+	}
+	
+	
+	/**
+	 * @return The shader program.
+	 * @throws IllegalStateException If the shader could not be compiled.
+	 */
+	ShaderProgram acquire()
+	{
+		if (program == null)
+		{
+			program = new ShaderProgram(Gdx.files.internal("shaders/" + name + ".vert"),
+					Gdx.files.internal("shaders/" + name + ".frag"));
+			
+			if (!program.isCompiled())
+			{
+				String log = program.getLog();
+				program.dispose();
+				program = null;
+				throw new IllegalStateException("Could not compile the " + name + " shader: " + log);
+			}
+		}
+		
+		users++;
+		return program;
+	}
+	
+	
+	void release()
+	{
+		if (--users == 0)
+		{
+			program.dispose();
+			program = null;
+		}
+	}
+}
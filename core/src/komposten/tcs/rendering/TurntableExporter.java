@@ -0,0 +1,241 @@
+/*
+ * Copyright 2019 Jakob Hjelm
+ * 
+ * This file is part of TetraColourSpace.
+ * 
+ * TetraColourSpace is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package komposten.tcs.rendering;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.badlogic.gdx.graphics.Camera;
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.PerspectiveCamera;
+import com.badlogic.gdx.graphics.g3d.ModelBatch;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.utils.Disposable;
+
+/**
+ * Exports a turntable animation of a {@link World}. The camera is rotated
+ * one full turn around a focal point, and each frame is rendered off-screen
+ * and saved as a numbered PNG image (<code>frame_0000.png</code>,
+ * <code>frame_0001.png</code>, ...).
+ * <br />
+ * The frames are rendered by a {@link ScreenshotRenderer}, so the read-back
+ * and encoding of earlier frames overlap with the rendering of the next ones,
+ * and only a few frames are kept in memory at a time. Each frame's camera is
+ * calculated from the start position and the frame number, so the result does
+ * not depend on the frame rate. The export uses its own camera, so the view
+ * can still be moved while exporting.
+ * <br />
+ * All methods must be called on the rendering thread.
+ */
+public class TurntableExporter implements Disposable
+{
+	public static final int DEFAULT_FRAMES = 360;
+	/** Lower than for screenshots, so that each frame only needs a tile or two. */
+	public static final int DEFAULT_SUPERSAMPLE = 2;
+	/** The number of tiles rendered per call to {@link #update(World, Camera, ModelBatch)}. */
+	private static final int TILES_PER_UPDATE = 8;
+	
+	private final ScreenshotRenderer renderer;
+	private final PerspectiveCamera frameCamera;
+	private final Vector3 focalPoint;
+	private final Vector3 startPosition;
+	private final Vector3 startDirection;
+	private final Vector3 startUp;
+	
+	private File directory;
+	private Color background;
+	private int width;
+	private int height;
+	private int frameCount;
+	private float degreesPerFrame;
+	private int nextFrame;
+	private AtomicInteger framesWritten;
+	private CompletableFuture<Void> result;
+	
+	
+	/**
+	 * @param supersample The supersampling factor (see
+	 *          {@link ScreenshotRenderer#ScreenshotRenderer(int)}).
+	 */
+	public TurntableExporter(int supersample)
+	{
+		renderer = new ScreenshotRenderer(supersample);
+		frameCamera = new PerspectiveCamera();
+		focalPoint = new Vector3();
+		startPosition = new Vector3();
+		startDirection = new Vector3();
+		startUp = new Vector3();
+	}
+	
+	
+	/**
+	 * Starts exporting a turntable animation, starting from
+	 * <code>camera</code>'s current view. The frames are rendered by
+	 * {@link #update(World, Camera, ModelBatch)}.
+	 * @param focalPoint The point to rotate the camera around. The camera is
+	 *          rotated around the vertical axis through this point.
+	 * @param direction The direction of the rotation, <code>1</code> or
+	 *          <code>-1</code>.
+	 * @param frameCount The number of frames to render.
+	 * @param directory The directory to save the frames in. Is created if it
+	 *          does not exist.
+	 * @return A future that is completed once all frames have been written, or
+	 *         completed exceptionally if a frame could not be written or the
+	 *         export was cancelled.
+	 * @throws IOException If the directory could not be created.
+	 * @throws IllegalStateException If an export is already in progress.
+	 */
+	public CompletableFuture<Void> start(PerspectiveCamera camera, Vector3 focalPoint, int direction,
+			int frameCount, Color background, int width, int height, File directory) throws IOException
+	{
+		if (isExporting())
+			throw new IllegalStateException("A turntable export is already in progress!");
+		if (frameCount < 1)
+			throw new IllegalArgumentException("frameCount must be at least 1!");
+		
+		directory.mkdirs();
+		if (!directory.isDirectory())
+			throw new IOException("Could not create the directory " + directory.getPath());
+		
+		frameCamera.fieldOfView = camera.fieldOfView;
+		frameCamera.near = camera.near;
+		frameCamera.far = camera.far;
+		frameCamera.viewportWidth = width;
+		frameCamera.viewportHeight = height;
+		
+		this.focalPoint.set(focalPoint);
+		this.startPosition.set(camera.position);
+		this.startDirection.set(camera.direction);
+		this.startUp.set(camera.up);
+		this.directory = directory;
+		this.background = background.cpy();
+		this.width = width;
+		this.height = height;
+		this.frameCount = frameCount;
+		this.degreesPerFrame = 360f / frameCount * direction;
+		this.nextFrame = 0;
+		this.framesWritten = new AtomicInteger();
+		this.result = new CompletableFuture<>();
+		
+		return result;
+	}
+	
+	
+	/**
+	 * @return <code>true</code> if an export has been started and has not
+	 *         finished, failed or been cancelled.
+	 */
+	public boolean isExporting()
+	{
+		return result != null && !result.isDone();
+	}
+	
+	
+	/**
+	 * @return <code>true</code> if an export is in progress, or if frames
+	 *         from a cancelled export are still being rendered.
+	 */
+	public boolean isBusy()
+	{
+		return isExporting() || renderer.isBusy();
+	}
+	
+	
+	/**
+	 * Stops queuing new frames. Frames that have already been queued are still
+	 * written.
+	 */
+	public void cancel()
+	{
+		if (isExporting())
+			result.cancel(false);
+	}
+	
+	
+	/**
+	 * Queues the next frames and renders a few tiles of them. Must be called
+	 * outside of any {@link ModelBatch} begin/end.
+	 */
+	public void update(World world, Camera camera, ModelBatch batch)
+	{
+		while (isExporting() && nextFrame < frameCount && renderer.canTakeScreenshot())
+			queueFrame(nextFrame++);
+		
+		renderer.update(world, camera, batch, TILES_PER_UPDATE);
+	}
+	
+	
+	private void queueFrame(int frame)
+	{
+		frameCamera.position.set(startPosition);
+		frameCamera.direction.set(startDirection);
+		frameCamera.up.set(startUp);
+		frameCamera.rotateAround(focalPoint, Vector3.Y, degreesPerFrame * frame);
+		frameCamera.update();
+		
+		File file = new File(directory, String.format("frame_%04d.png", frame));
+		
+		// The frames are written on other threads, and may finish after a new
+		// export has been started.
+		CompletableFuture<Void> exportResult = result;
+		AtomicInteger exportFrames = framesWritten;
+		int exportFrameCount = frameCount;
+		
+		try
+		{
+			renderer.takeScreenshot(frameCamera, background, width, height, file).whenComplete((value, exception) ->
+			{
+				if (exception != null)
+					exportResult.completeExceptionally(exception);
+				else if (exportFrames.incrementAndGet() == exportFrameCount)
+					exportResult.complete(null);
+			});
+		}
+		catch (IOException e)
+		{
+			result.completeExceptionally(e);
+		}
+	}
+	
+	
+	/**
+	 * @return The fraction of the frames that have been written, between 0 and 1.
+	 */
+	public float getProgress()
+	{
+		return (framesWritten != null ? framesWritten.get() / (float) frameCount : 0);
+	}
+	
+	
+	public String getStatusText()
+	{
+		int frames = (framesWritten != null ? framesWritten.get() : 0);
+		return String.format("Exporting turntable... %d/%d frames", frames, frameCount);
+	}
+	
+	
+	@Override
+	public void dispose()
+	{
+		cancel();
+		renderer.dispose();
+	}
+}
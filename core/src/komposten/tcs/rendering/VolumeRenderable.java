@@ -28,6 +28,7 @@ import com.badlogic.gdx.graphics.g3d.Renderable;
 import com.badlogic.gdx.graphics.g3d.attributes.BlendingAttribute;
 import com.badlogic.gdx.graphics.g3d.utils.MeshBuilder;
 import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.math.collision.BoundingBox;
 import com.badlogic.gdx.utils.Disposable;
 
 import komposten.tcs.backend.data.Volume;
@@ -38,13 +39,17 @@ public class VolumeRenderable implements Disposable
 	private static Vector3 calcVector = new Vector3();
 	private static Vector3 calcVector2 = new Vector3();
 	
+	private Volume volume;
 	private Mesh mesh;
 	private Renderable renderable;
+	private BoundingBox bounds;
 	
 	public VolumeRenderable(Volume data, Environment environment)
 	{
+		this.volume = data;
 		this.mesh = createMesh(data);
 		this.renderable = createRenderable(mesh, data.getColour(), environment);
+		this.bounds = mesh.calculateBoundingBox();
 	}
 	
 	
@@ -207,6 +212,18 @@ public class VolumeRenderable implements Disposable
 	}
 
 
+	public Volume getVolume()
+	{
+		return volume;
+	}
+	
+	
+	public BoundingBox getBounds()
+	{
+		return bounds;
+	}
+
+
 	public void render(ModelBatch batch)
 	{
 		batch.render(renderable);
@@ -20,6 +20,7 @@ package komposten.tcs.rendering;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Objects;
 
 import com.badlogic.gdx.graphics.Camera;
 import com.badlogic.gdx.graphics.Color;
@@ -38,6 +39,7 @@ import komposten.tcs.backend.Backend;
 import komposten.tcs.backend.Style;
 import komposten.tcs.backend.Style.Colour;
 import komposten.tcs.backend.Style.Setting;
+import komposten.tcs.backend.data.GraphData;
 import komposten.tcs.backend.data.Point;
 import komposten.tcs.backend.data.PointGroup;
 import komposten.tcs.backend.data.Volume;
@@ -50,6 +52,9 @@ import komposten.tcs.util.ShapeFactory;
 
 public class World implements Disposable, InputReceiver
 {
+	/** The maximum distance from the camera's line of sight to highlight a point. */
+	private static final float MAX_HIGHLIGHT_DISTANCE = 0.2f;
+	
 	private Backend backend;
 	private Camera camera;
 	private Environment environment;
@@ -58,13 +63,24 @@ public class World implements Disposable, InputReceiver
 
 	private List<Disposable> disposables;
 	private List<PointGroupRenderable> groupRenderables;
+	private List<PointGroupRenderable> pendingGroupRenderables;
 	private List<VolumeRenderable> volumeRenderables;
 	private ModelInstance selectedModel;
 	private ModelInstance highlightModel;
+	/** Used to find the highlighted point if the style's pick mode is GPU. */
+	private GpuPicker gpuPicker;
 	
 	private Point highlightPoint;
 	private Point selectedPoint;
 	
+	private final Vector3 pickPosition = new Vector3();
+	private final Vector3 pickDirection = new Vector3();
+	private boolean pickDirty = true;
+	private boolean pickCached;
+	private long pickTime;
+	private int drawnChunks;
+	private int culledChunks;
+	
 	private boolean showPoints = true;
 	private boolean showVolumes = true;
 	private boolean showHighlight = true;
@@ -73,6 +89,20 @@ public class World implements Disposable, InputReceiver
 
 
 	public World(Backend backend, Camera camera)
+	{
+		this(backend, camera, false);
+	}
+	
+	
+	/**
+	 * @param deferPointData If <code>true</code>, the point data is not generated
+	 *          by the constructor. Instead, {@link PointGroupRenderable#prepare()}
+	 *          must be called for each of the {@link #getPendingPointGroups()
+	 *          pending groups} (on any thread), followed by
+	 *          {@link #showPointGroup(PointGroupRenderable)} on the rendering
+	 *          thread.
+	 */
+	public World(Backend backend, Camera camera, boolean deferPointData)
 	{
 		this.backend = backend;
 		this.camera = camera;
@@ -80,10 +110,20 @@ public class World implements Disposable, InputReceiver
 		disposables = new ArrayList<>();
 
 		createEnvironment();
+		createPicker();
 		
 		generatePointObjects();
 		generateVolumeObjects();
 		createStaticModels();
+		
+		if (!deferPointData)
+		{
+			for (PointGroupRenderable groupRenderable : getPendingPointGroups())
+			{
+				groupRenderable.prepare();
+				showPointGroup(groupRenderable);
+			}
+		}
 	}
 	
 	
@@ -127,6 +167,48 @@ public class World implements Disposable, InputReceiver
 	}
 	
 	
+	/**
+	 * @return The time (in nanoseconds) spent looking for the point to highlight
+	 *         during the last {@link #update()}. <code>0</code> if the previous
+	 *         highlight was reused or highlighting is disabled.
+	 */
+	public long getPickTime()
+	{
+		return pickTime;
+	}
+	
+	
+	/**
+	 * @return <code>true</code> if the last {@link #update()} reused the previous
+	 *         highlight, since neither the camera nor the points had changed.
+	 */
+	public boolean isPickCached()
+	{
+		return pickCached;
+	}
+	
+	
+	/**
+	 * @return The number of point chunks and volumes drawn during the last
+	 *         {@link #render(ModelBatch, boolean)}.
+	 */
+	public int getDrawnChunks()
+	{
+		return drawnChunks;
+	}
+	
+	
+	/**
+	 * @return The number of point chunks and volumes that were not drawn during
+	 *         the last {@link #render(ModelBatch, boolean)} because they were
+	 *         outside the camera's frustum.
+	 */
+	public int getCulledChunks()
+	{
+		return culledChunks;
+	}
+	
+	
 	private void createEnvironment()
 	{
 		DirectionalLight light = new DirectionalLight();
@@ -149,25 +231,113 @@ public class World implements Disposable, InputReceiver
 	}
 	
 	
+	private void createPicker()
+	{
+		int pickMode = backend.getStyle().get(Setting.PICK_MODE).intValue();
+		
+		if (pickMode == Style.PICK_MODE_GPU && GpuPicker.isSupported())
+		{
+			gpuPicker = new GpuPicker();
+			disposables.add(gpuPicker);
+		}
+	}
+	
+	
 	private void generatePointObjects()
 	{
-		Style style = backend.getStyle();
 		List<PointGroup> pointGroups = backend.getGraph().getDataGroups();
-		int sphereSegments = style.get(Setting.SPHERE_QUALITY).intValue();
 		
 		groupRenderables = new ArrayList<>(pointGroups.size());
+		pendingGroupRenderables = new ArrayList<>(pointGroups.size());
 		
 		for (PointGroup group : pointGroups)
 		{
-			PointGroupRenderable dataGroup;
-			if (style.get(Setting.RENDER_MODE).intValue() == Style.RENDER_MODE_FAST)
-				dataGroup = new PointGroupRenderable.MeshPerGroup(group, sphereSegments, environment);
-			else
-				dataGroup = new PointGroupRenderable.MeshPerPoint(group, sphereSegments, environment);
-			groupRenderables.add(dataGroup);
+			PointGroupRenderable dataGroup = createPointGroupRenderable(group);
+			pendingGroupRenderables.add(dataGroup);
 			disposables.add(dataGroup);
 		}
 	}
+	
+	
+	private PointGroupRenderable createPointGroupRenderable(PointGroup group)
+	{
+		Style style = backend.getStyle();
+		int sphereSegments = style.get(Setting.SPHERE_QUALITY).intValue();
+		int renderMode = style.get(Setting.RENDER_MODE).intValue();
+		
+		if ((renderMode == Style.RENDER_MODE_INSTANCED || renderMode == Style.RENDER_MODE_SPRITES)
+				&& !PointGroupRenderable.ShaderBased.isSupported())
+			renderMode = Style.RENDER_MODE_FAST;
+		
+		if (renderMode == Style.RENDER_MODE_FAST)
+			return new PointGroupRenderable.MeshPerGroup(group, sphereSegments, environment);
+		else if (renderMode == Style.RENDER_MODE_INSTANCED)
+			return new PointGroupRenderable.Instanced(group, sphereSegments, environment);
+		else if (renderMode == Style.RENDER_MODE_SPRITES)
+			return new PointGroupRenderable.PointSprites(group, sphereSegments, environment);
+		else
+			return new PointGroupRenderable.MeshPerPoint(group, sphereSegments, environment);
+	}
+	
+	
+	/**
+	 * @return The point groups that have not yet been shown, in the same order
+	 *         as the groups in the graph.
+	 */
+	public List<PointGroupRenderable> getPendingPointGroups()
+	{
+		return new ArrayList<>(pendingGroupRenderables);
+	}
+	
+	
+	/**
+	 * Uploads the data of a {@link PointGroupRenderable#prepare() prepared}
+	 * group and starts rendering it. Must be called on the rendering thread.
+	 */
+	public void showPointGroup(PointGroupRenderable groupRenderable)
+	{
+		if (pendingGroupRenderables.remove(groupRenderable))
+		{
+			groupRenderable.upload();
+			addShownGroup(groupRenderable);
+			pickDirty = true;
+			
+			if (gpuPicker != null)
+				gpuPicker.addGroup(groupRenderable.getGroup());
+		}
+	}
+	
+	
+	/**
+	 * Adds <code>groupRenderable</code> to the shown groups. The shown groups are
+	 * kept in the same order as the groups in the graph, regardless of the order
+	 * they are shown in, so the CPU picking gives ties to the earlier group.
+	 */
+	private void addShownGroup(PointGroupRenderable groupRenderable)
+	{
+		List<PointGroup> groups = backend.getGraph().getDataGroups();
+		int graphIndex = groups.indexOf(groupRenderable.getGroup());
+		
+		int index = groupRenderables.size();
+		while (index > 0 && groups.indexOf(groupRenderables.get(index - 1).getGroup()) > graphIndex)
+			index--;
+		
+		groupRenderables.add(index, groupRenderable);
+	}
+	
+	
+	/**
+	 * Removes a pending group whose data could not be generated. The group is
+	 * disposed and will not be shown.
+	 */
+	public void discardPointGroup(PointGroupRenderable groupRenderable)
+	{
+		if (pendingGroupRenderables.remove(groupRenderable))
+		{
+			groupRenderable.dispose();
+			disposables.remove(groupRenderable);
+		}
+	}
 
 
 	private void generateVolumeObjects()
@@ -184,15 +354,228 @@ public class World implements Disposable, InputReceiver
 	}
 	
 	
-	public void update()
+	/**
+	 * Shows the points that have been added to the stores of
+	 * <code>groups</code> since the groups were shown. Groups that have been
+	 * added to the graph since then are shown as well.
+	 * <br />
+	 * Must be called on the rendering thread, and not while pending groups are
+	 * being prepared.
+	 */
+	public void addPoints(List<PointGroup> groups)
+	{
+		for (PointGroup group : groups)
+		{
+			PointGroupRenderable renderable = null;
+			for (PointGroupRenderable groupRenderable : groupRenderables)
+			{
+				if (groupRenderable.getGroup() == group)
+				{
+					renderable = groupRenderable;
+					break;
+				}
+			}
+			
+			if (renderable != null)
+			{
+				renderable.appendPoints();
+				if (gpuPicker != null)
+					gpuPicker.appendPoints(group);
+			}
+			else
+			{
+				renderable = createPointGroupRenderable(group);
+				pendingGroupRenderables.add(renderable);
+				disposables.add(renderable);
+				renderable.prepare();
+				showPointGroup(renderable);
+			}
+		}
+		
+		pickDirty = true;
+	}
+	
+	
+	/**
+	 * Replaces the graph with <code>newGraph</code>, e.g. after the data file
+	 * has been changed. Point groups and volumes with the same data as before
+	 * are kept as they are, so only the ones that changed have to be generated
+	 * again. New point groups are added to the {@link #getPendingPointGroups()
+	 * pending groups}.
+	 * <br />
+	 * The selection is kept if the selected point still exists (i.e. if there
+	 * is a point with the same name in a group with the same name).
+	 * <br />
+	 * Must be called on the rendering thread, and not while pending groups are
+	 * being prepared.
+	 */
+	public void reload(GraphData newGraph)
+	{
+		reloadPointGroups(newGraph.getDataGroups());
+		reloadVolumes(newGraph.getDataVolumes());
+		backend.setGraph(newGraph);
+		
+		if (selectedPoint != null && !newGraph.getDataGroups().contains(selectedPoint.getGroup()))
+		{
+			selectedPoint = findPoint(newGraph.getDataGroups(), selectedPoint);
+			hasSelection = (selectedPoint != null);
+			graphSpace.setPointMetricTarget(selectedPoint);
+			if (hasSelection)
+				scaleAndTranslate(selectedPoint, selectedModel);
+		}
+		
+		highlightPoint = null;
+		hasHighlight = false;
+		pickDirty = true;
+	}
+	
+	
+	private void reloadPointGroups(List<PointGroup> newGroups)
+	{
+		List<PointGroupRenderable> oldRenderables = new ArrayList<>(groupRenderables);
+		oldRenderables.addAll(pendingGroupRenderables);
+		List<PointGroupRenderable> shown = new ArrayList<>(newGroups.size());
+		List<PointGroupRenderable> pending = new ArrayList<>(newGroups.size());
+		
+		for (int i = 0; i < newGroups.size(); i++)
+		{
+			PointGroupRenderable renderable = null;
+			for (PointGroupRenderable oldRenderable : oldRenderables)
+			{
+				if (oldRenderable.getGroup().hasSameData(newGroups.get(i)))
+				{
+					renderable = oldRenderable;
+					break;
+				}
+			}
+			
+			if (renderable != null)
+			{
+				// Keep the old group, since the renderable and the picker refer to it.
+				oldRenderables.remove(renderable);
+				newGroups.set(i, renderable.getGroup());
+				
+				if (groupRenderables.contains(renderable))
+					shown.add(renderable);
+				else
+					pending.add(renderable);
+			}
+			else
+			{
+				renderable = createPointGroupRenderable(newGroups.get(i));
+				pending.add(renderable);
+				disposables.add(renderable);
+			}
+		}
+		
+		for (PointGroupRenderable oldRenderable : oldRenderables)
+		{
+			if (gpuPicker != null && groupRenderables.contains(oldRenderable))
+				gpuPicker.removeGroup(oldRenderable.getGroup());
+			
+			oldRenderable.dispose();
+			disposables.remove(oldRenderable);
+		}
+		
+		groupRenderables = shown;
+		pendingGroupRenderables = pending;
+	}
+	
+	
+	private void reloadVolumes(List<Volume> newVolumes)
 	{
+		List<VolumeRenderable> oldRenderables = volumeRenderables;
+		volumeRenderables = new ArrayList<>(newVolumes.size());
+		
+		for (int i = 0; i < newVolumes.size(); i++)
+		{
+			VolumeRenderable renderable = null;
+			for (VolumeRenderable oldRenderable : oldRenderables)
+			{
+				if (oldRenderable.getVolume().hasSameData(newVolumes.get(i)))
+				{
+					renderable = oldRenderable;
+					break;
+				}
+			}
+			
+			if (renderable != null)
+			{
+				oldRenderables.remove(renderable);
+				newVolumes.set(i, renderable.getVolume());
+			}
+			else
+			{
+				renderable = new VolumeRenderable(newVolumes.get(i), environment);
+				disposables.add(renderable);
+			}
+			
+			volumeRenderables.add(renderable);
+		}
+		
+		for (VolumeRenderable oldRenderable : oldRenderables)
+		{
+			oldRenderable.dispose();
+			disposables.remove(oldRenderable);
+		}
+	}
+	
+	
+	/**
+	 * @return The point in <code>groups</code> with the same name and group name
+	 *         as <code>point</code>, or <code>null</code> if there is none.
+	 */
+	private Point findPoint(List<PointGroup> groups, Point point)
+	{
+		String groupName = point.getGroup().getName();
+		
+		for (PointGroup group : groups)
+		{
+			if (group.getName().equals(groupName))
+			{
+				int index = group.getStore().indexOf(point.getName());
+				if (index != -1)
+					return group.getPoint(index);
+			}
+		}
+		
+		return null;
+	}
+	
+	
+	/**
+	 * Updates the highlighted point.
+	 * @return <code>true</code> if the highlighted point changed, in which case
+	 *         the world must be rendered again.
+	 */
+	public boolean update()
+	{
+		pickTime = 0;
+		pickCached = false;
+		
 		if (showHighlight)
-			updateHighlight();
+		{
+			// The highlight only depends on the camera's line of sight and the points.
+			if (pickDirty || !pickPosition.equals(camera.position) || !pickDirection.equals(camera.direction))
+			{
+				Point oldHighlight = highlightPoint;
+				updateHighlight();
+				return !Objects.equals(highlightPoint, oldHighlight);
+			}
+			else
+			{
+				pickCached = true;
+			}
+		}
+		
+		return false;
 	}
 	
 	
 	private void updateHighlight()
 	{
+		long start = System.nanoTime();
+		
 		highlightPoint = getPointNearCrosshair();
 		if (highlightPoint != null)
 		{
@@ -203,6 +586,11 @@ public class World implements Disposable, InputReceiver
 		{
 			hasHighlight = false;
 		}
+		
+		pickPosition.set(camera.position);
+		pickDirection.set(camera.direction);
+		pickDirty = false;
+		pickTime = System.nanoTime() - start;
 	}
 	
 	
@@ -244,39 +632,35 @@ public class World implements Disposable, InputReceiver
 	
 	private Point getPointNearCrosshair()
 	{
+		if (gpuPicker != null)
+			return gpuPicker.pick(camera);
+		
 		Vector3 point1 = camera.position.cpy();
 		Vector3 point2 = point1.cpy().add(camera.direction);
 		
-		Point closest = null;
-		float closestDist = Float.MAX_VALUE;
+		PointGroup closestGroup = null;
+		int closest = -1;
+		float closestDist = MAX_HIGHLIGHT_DISTANCE;
 		
-		Vector3 calc1 = new Vector3();
-		Vector3 calc2 = new Vector3();
-		Vector3 calc3 = new Vector3();
-		
-		for (PointGroup group : backend.getGraph().getDataGroups())
+		// Each search only accepts points closer than the closest point so far,
+		// so if two groups have equally close points the one that comes first in
+		// the graph is used.
+		for (PointGroupRenderable groupRenderable : groupRenderables)
 		{
-			for (Point point : group.getPoints())
+			PointOctree octree = groupRenderable.getOctree();
+			int index = octree.findClosestToLine(point1, point2, closestDist);
+			
+			if (index != -1)
 			{
-				calc1.set(point.getCoordinates()).sub(point1);
-				calc2.set(point.getCoordinates()).sub(point2);
-				calc1.crs(calc2);
-				
-				calc3.set(point2).sub(point1);
-				
-				float dist = calc1.len() / calc3.len();
-				
-				if (dist < closestDist)
-				{
-					closest = point;
-					closestDist = dist;
-				}
+				closestGroup = groupRenderable.getGroup();
+				closest = index;
+				closestDist = octree.getClosestDistance();
 			}
 		}
 		
-		if (closestDist < 0.2)
+		if (closestGroup != null)
 		{
-			return closest;
+			return closestGroup.getPoint(closest);
 		}
 		
 		return null;
@@ -290,6 +674,9 @@ public class World implements Disposable, InputReceiver
 			graphSpace.cameraUpdated();
 		}
 		
+		drawnChunks = 0;
+		culledChunks = 0;
+		
 		graphSpace.render(batch, environment);
 		renderPoints(batch);
 		renderVolumes(batch);
@@ -301,13 +688,18 @@ public class World implements Disposable, InputReceiver
 		if (showPoints)
 		{
 			for (PointGroupRenderable groupRenderable : groupRenderables)
+			{
+				groupRenderable.resetChunkCounts();
 				groupRenderable.render(batch);
+				drawnChunks += groupRenderable.getDrawnChunks();
+				culledChunks += groupRenderable.getCulledChunks();
+			}
 
 			if (hasSelection)
 			{
 				batch.render(selectedModel, environment);
 			}
-			if (showHighlight && hasHighlight && (!hasSelection || selectedPoint != highlightPoint))
+			if (showHighlight && hasHighlight && (!hasSelection || !selectedPoint.equals(highlightPoint)))
 			{
 				batch.render(highlightModel, environment);
 			}
@@ -320,7 +712,17 @@ public class World implements Disposable, InputReceiver
 		if (showVolumes)
 		{
 			for (VolumeRenderable volumeRenderable : volumeRenderables)
-				volumeRenderable.render(batch);
+			{
+				if (camera.frustum.boundsInFrustum(volumeRenderable.getBounds()))
+				{
+					volumeRenderable.render(batch);
+					drawnChunks++;
+				}
+				else
+				{
+					culledChunks++;
+				}
+			}
 		}
 	}
 	
@@ -348,6 +750,7 @@ public class World implements Disposable, InputReceiver
 				{
 					hasHighlight = false;
 					highlightPoint = null;
+					pickDirty = true;
 				}
 				return true;
 			}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2019 Jakob Hjelm
+ * 
+ * This file is part of TetraColourSpace.
+ * 
+ * TetraColourSpace is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package komposten.tcs.ui;
+
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.Pixmap;
+import com.badlogic.gdx.graphics.Pixmap.Format;
+import com.badlogic.gdx.graphics.Texture;
+import com.badlogic.gdx.graphics.g2d.BitmapFont;
+import com.badlogic.gdx.graphics.g2d.SpriteBatch;
+import com.badlogic.gdx.utils.Align;
+import com.badlogic.gdx.utils.Disposable;
+
+/**
+ * Renders a progress bar with a status text in the bottom-left corner of the
+ * screen.
+ */
+public class ProgressIndicator implements Disposable
+{
+	private static final float PADDING = 5;
+	private static final float BAR_WIDTH = 200;
+	private static final float BAR_HEIGHT = 4;
+	
+	private BitmapFont font;
+	private Texture pixel;
+	private Color colour;
+	
+	
+	public ProgressIndicator()
+	{
+		font = new BitmapFont();
+		
+		Pixmap pixmap = new Pixmap(1, 1, Format.RGBA8888);
+		pixmap.setColor(Color.WHITE);
+		pixmap.fill();
+		pixel = new Texture(pixmap);
+		pixmap.dispose();
+		
+		colour = Color.WHITE.cpy();
+	}
+	
+	
+	public void setColour(Color colour)
+	{
+		this.colour.set(colour);
+	}
+	
+	
+	/**
+	 * @param text The status text.
+	 * @param progress The progress, between 0 and 1.
+	 */
+	public void render(SpriteBatch batch, String text, float progress)
+	{
+		progress = Math.max(0, Math.min(progress, 1));
+		
+		batch.setColor(colour.r, colour.g, colour.b, colour.a * 0.3f);
+		batch.draw(pixel, PADDING, PADDING, BAR_WIDTH, BAR_HEIGHT);
+		batch.setColor(colour);
+		batch.draw(pixel, PADDING, PADDING, BAR_WIDTH * progress, BAR_HEIGHT);
+		batch.setColor(Color.WHITE);
+		
+		font.setColor(colour);
+		font.draw(batch, text, PADDING, PADDING*2 + BAR_HEIGHT + font.getCapHeight(), 0, Align.left, false);
+	}
+	
+	
+	@Override
+	public void dispose()
+	{
+		font.dispose();
+		pixel.dispose();
+	}
+}
@@ -24,6 +24,8 @@ import com.badlogic.gdx.graphics.Texture;
 import com.badlogic.gdx.graphics.g2d.BitmapFont;
 import com.badlogic.gdx.graphics.g2d.Sprite;
 import com.badlogic.gdx.graphics.g2d.SpriteBatch;
+import com.badlogic.gdx.math.Vector3;
+import com.badlogic.gdx.utils.Align;
 import com.badlogic.gdx.utils.Disposable;
 
 import komposten.tcs.backend.Backend;
@@ -34,6 +36,8 @@ import komposten.tcs.input.InputHandler;
 import komposten.tcs.input.InputHandler.InputListener;
 import komposten.tcs.input.InputReceiver;
 import komposten.tcs.rendering.World;
+import komposten.tcs.util.MaterialCache;
+import komposten.tcs.util.TCSUtils;
 
 public class UserInterface implements Disposable, InputReceiver
 {
@@ -52,6 +56,7 @@ public class UserInterface implements Disposable, InputReceiver
 	private IconText metricBody;
 	
 	private boolean showCrosshair = true;
+	private boolean showStats = false;
 	private int showLegend = 0;
 
 	
@@ -116,6 +121,15 @@ public class UserInterface implements Disposable, InputReceiver
 	}
 	
 	
+	/**
+	 * Updates the legend after the backend's graph has been replaced.
+	 */
+	public void graphChanged()
+	{
+		legend = new LegendRenderable(backend, font);
+	}
+	
+	
 	public void resize(int width, int height)
 	{
 		if (crosshair != null)
@@ -136,6 +150,7 @@ public class UserInterface implements Disposable, InputReceiver
 		
 		renderMetricText(batch);
 		renderLegend(batch);
+		renderStats(batch);
 	}
 
 
@@ -144,10 +159,11 @@ public class UserInterface implements Disposable, InputReceiver
 		if (world.hasSelection() && world.pointsVisible())
 		{
 			Point selectedPoint = world.getSelectedPoint();
+			Vector3 selectedMetrics = selectedPoint.getMetrics();
 			String metrics = String.format("  Theta: %.02f%n  Phi: %.02f%n  r: %.02f",
-					selectedPoint.getMetrics().x,
-					selectedPoint.getMetrics().y,
-					selectedPoint.getMetrics().z);
+					selectedMetrics.x,
+					selectedMetrics.y,
+					selectedMetrics.z);
 			
 			metricHeader.setText(selectedPoint.getName());
 			metricHeader.setY(Gdx.graphics.getHeight() - 15f);
@@ -162,6 +178,27 @@ public class UserInterface implements Disposable, InputReceiver
 	}
 
 
+	private void renderStats(SpriteBatch batch)
+	{
+		if (showStats)
+		{
+			String pickTime;
+			if (world.isPickCached())
+				pickTime = "cached";
+			else
+				pickTime = String.format("%.3f ms", world.getPickTime() / 1e6);
+			
+			MaterialCache materials = TCSUtils.getMaterialCache();
+			String stats = String.format("FPS: %d%nPick: %s%nChunks: %d drawn, %d culled%nMaterials: %d (%.0f%% hits)",
+					Gdx.graphics.getFramesPerSecond(), pickTime, world.getDrawnChunks(), world.getCulledChunks(),
+					materials.size(), materials.getHitRate() * 100);
+			
+			font.setColor(backend.getStyle().get(Colour.TEXT));
+			font.draw(batch, stats, 0, Gdx.graphics.getHeight() - 5f, Gdx.graphics.getWidth() - 5f, Align.right, false);
+		}
+	}
+
+
 	private void renderLegend(SpriteBatch batch)
 	{
 		if (showLegend != LEGEND_HIDE)
@@ -194,6 +231,11 @@ public class UserInterface implements Disposable, InputReceiver
 				showLegend = (showLegend + 1) % LEGEND_OPTIONS;
 				return true;
 			}
+			else if (action == Action.TOGGLE_STATS)
+			{
+				showStats = !showStats;
+				return true;
+			}
 
 			return false;
 		}
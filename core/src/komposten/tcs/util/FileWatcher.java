@@ -0,0 +1,124 @@
+/*
+ * Copyright 2019 Jakob Hjelm
+ * 
+ * This file is part of TetraColourSpace.
+ * 
+ * TetraColourSpace is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package komposten.tcs.util;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches a file for changes using a {@link WatchService}, and notifies a
+ * listener on a background thread when the file has changed.
+ * <br />
+ * Programs often write a file in several steps, so the listener is only
+ * notified once the file has not changed for {@link #SETTLE_TIME}
+ * milliseconds.
+ */
+public class FileWatcher implements Closeable
+{
+	private static final long SETTLE_TIME = 300;
+	
+	private final Path directory;
+	private final Path fileName;
+	private final Runnable listener;
+	private final WatchService watchService;
+	
+	
+	/**
+	 * Starts watching <code>file</code>.
+	 * @param listener Called on the watcher thread when the file has changed.
+	 * @throws IOException If the file's directory cannot be watched.
+	 */
+	public FileWatcher(File file, Runnable listener) throws IOException
+	{
+		Path path = file.getAbsoluteFile().toPath();
+		this.directory = path.getParent();
+		this.fileName = path.getFileName();
+		this.listener = listener;
+		this.watchService = directory.getFileSystem().newWatchService();
+		
+		// The directory is watched since the file may be replaced (deleted and
+		// created again) rather than modified.
+		directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		
+		Thread thread = new Thread(this::watch, "File watcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+	
+	
+	private void watch()
+	{
+		try
+		{
+			while (true)
+			{
+				if (!pollChanges(watchService.take()))
+					continue;
+				
+				// Wait until the file has stopped changing.
+				WatchKey key;
+				while ((key = watchService.poll(SETTLE_TIME, TimeUnit.MILLISECONDS)) != null)
+					pollChanges(key);
+				
+				listener.run();
+			}
+		}
+		catch (InterruptedException | ClosedWatchServiceException e)
+		{
+			// The watcher has been closed.
+		}
+	}
+	
+	
+	/**
+	 * @return <code>true</code> if any of <code>key</code>'s events concern the
+	 *         watched file.
+	 */
+	private boolean pollChanges(WatchKey key)
+	{
+		boolean changed = false;
+		
+		for (WatchEvent<?> event : key.pollEvents())
+		{
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW || fileName.equals(event.context()))
+				changed = true;
+		}
+		
+		key.reset();
+		return changed;
+	}
+	
+	
+	/**
+	 * Stops watching the file.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		watchService.close();
+	}
+}
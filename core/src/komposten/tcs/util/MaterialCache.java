@@ -0,0 +1,172 @@
+/*
+ * Copyright 2019 Jakob Hjelm
+ * 
+ * This file is part of TetraColourSpace.
+ * 
+ * TetraColourSpace is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package komposten.tcs.util;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.badlogic.gdx.graphics.Color;
+import com.badlogic.gdx.graphics.g3d.Material;
+import com.badlogic.gdx.graphics.g3d.attributes.ColorAttribute;
+
+/**
+ * A thread-safe cache of diffuse colour materials, keyed on the colours'
+ * RGBA8888 values.
+ * <br />
+ * The cache holds at most <code>maxSize</code> materials. When it is full,
+ * materials that have not been used since the last eviction are removed
+ * (second-chance eviction). Evicted materials are not disposed (materials do
+ * not hold any native resources), so instances still using them are not
+ * affected; the next request for the colour simply creates a new material.
+ */
+public class MaterialCache
+{
+	private final int maxSize;
+	private final Map<Integer, Entry> materials;
+	private final Object evictionLock = new Object();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder misses = new LongAdder();
+	private final LongAdder evictions = new LongAdder();
+	
+	
+	public MaterialCache(int maxSize)
+	{
+		if (maxSize < 1)
+			throw new IllegalArgumentException("maxSize must be at least 1!");
+		
+		this.maxSize = maxSize;
+		this.materials = new ConcurrentHashMap<>();
+	}
+	
+	
+	/**
+	 * @return A material with a diffuse colour attribute for <code>colour</code>.
+	 *         The material is shared and must not be modified (use
+	 *         {@link Material#copy()} if needed).
+	 */
+	public Material get(Color colour)
+	{
+		int rgba = Color.rgba8888(colour);
+		Entry entry = materials.get(rgba);
+		
+		if (entry != null)
+		{
+			hits.increment();
+		}
+		else
+		{
+			misses.increment();
+			entry = materials.computeIfAbsent(rgba, key -> new Entry(new Material(ColorAttribute.createDiffuse(colour))));
+			
+			if (materials.size() > maxSize)
+				evict();
+		}
+		
+		entry.used = true;
+		return entry.material;
+	}
+	
+	
+	private void evict()
+	{
+		synchronized (evictionLock)
+		{
+			// The first pass clears the used flags, so the second pass is
+			// guaranteed to free enough space.
+			for (int pass = 0; pass < 2 && materials.size() > maxSize; pass++)
+			{
+				Iterator<Entry> iterator = materials.values().iterator();
+				while (iterator.hasNext() && materials.size() > maxSize)
+				{
+					Entry entry = iterator.next();
+					if (entry.used)
+					{
+						entry.used = false;
+					}
+					else
+					{
+						iterator.remove();
+						evictions.increment();
+					}
+				}
+			}
+		}
+	}
+	
+	
+	/**
+	 * Removes all materials from the cache. The statistics are not reset.
+	 */
+	public void clear()
+	{
+		materials.clear();
+	}
+	
+	
+	public int size()
+	{
+		return materials.size();
+	}
+	
+	
+	public long getHitCount()
+	{
+		return hits.sum();
+	}
+	
+	
+	public long getMissCount()
+	{
+		return misses.sum();
+	}
+	
+	
+	public long getEvictionCount()
+	{
+		return evictions.sum();
+	}
+	
+	
+	/**
+	 * @return The fraction of requests that were served from the cache, or 0 if
+	 *         there have been no requests.
+	 */
+	public float getHitRate()
+	{
+		long hitCount = hits.sum();
+		long total = hitCount + misses.sum();
+		return (total > 0 ? hitCount / (float) total : 0);
+	}
+	
+	
+	private static class Entry
+	{
+		private final Material material;
+		private volatile boolean used;
+		
+		
+		Entry(Material material)
+		{
+			this.material = material;
+			this.used = true;
+		}
+	}
+}
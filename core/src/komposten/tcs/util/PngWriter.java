@@ -0,0 +1,203 @@
+/*
+ * Copyright 2019 Jakob Hjelm
+ * 
+ * This file is part of TetraColourSpace.
+ * 
+ * TetraColourSpace is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ * 
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package komposten.tcs.util;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes 8-bit RGBA PNG images one row at a time, from the top row to the
+ * bottom row, so the whole image never has to be kept in memory.
+ */
+public class PngWriter implements Closeable
+{
+	private static final byte[] SIGNATURE = { (byte) 137, 80, 78, 71, 13, 10, 26, 10 };
+	private static final int CHUNK_IHDR = 0x49484452;
+	private static final int CHUNK_IDAT = 0x49444154;
+	private static final int CHUNK_IEND = 0x49454E44;
+	private static final int IDAT_SIZE = 1 << 16;
+	private static final int FILTER_SUB = 1;
+	
+	private final DataOutputStream output;
+	private final Deflater deflater;
+	private final DeflaterOutputStream imageData;
+	private final CRC32 crc;
+	private final int width;
+	private final int height;
+	private final byte[] filteredRow;
+	private int rowsWritten;
+	
+	
+	/**
+	 * Writes the PNG header to <code>output</code>. <code>output</code> is
+	 * closed when the writer is closed.
+	 */
+	public PngWriter(OutputStream output, int width, int height) throws IOException
+	{
+		if (width < 1 || height < 1)
+			throw new IllegalArgumentException("The image size must be at least 1x1!");
+		
+		this.output = new DataOutputStream(output);
+		this.deflater = new Deflater();
+		this.imageData = new DeflaterOutputStream(new ChunkOutputStream(), deflater, IDAT_SIZE);
+		this.crc = new CRC32();
+		this.width = width;
+		this.height = height;
+		this.filteredRow = new byte[1 + width * 4];
+		
+		byte[] header = new byte[13];
+		writeInt(header, 0, width);
+		writeInt(header, 4, height);
+		header[8] = 8; // Bit depth
+		header[9] = 6; // Colour type: RGBA
+		
+		this.output.write(SIGNATURE);
+		writeChunk(CHUNK_IHDR, header, header.length);
+	}
+	
+	
+	/**
+	 * Writes the next row of the image.
+	 * @param pixels The pixels, as RGBA bytes.
+	 * @param offset The index of the first byte of the row in <code>pixels</code>.
+	 */
+	public void writeRow(byte[] pixels, int offset) throws IOException
+	{
+		if (rowsWritten == height)
+			throw new IllegalStateException("All " + height + " rows have already been written!");
+		
+		// The sub filter stores the difference to the pixel to the left, which
+		// compresses well since neighbouring pixels are often similar.
+		filteredRow[0] = FILTER_SUB;
+		for (int i = 0; i < width * 4; i++)
+		{
+			int left = (i >= 4 ? pixels[offset + i - 4] : 0);
+			filteredRow[1 + i] = (byte) (pixels[offset + i] - left);
+		}
+		
+		imageData.write(filteredRow);
+		rowsWritten++;
+	}
+	
+	
+	/**
+	 * Finishes the image and closes the output stream.
+	 * @throws IOException If an I/O error occurs or not all rows were written.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		try
+		{
+			if (rowsWritten != height)
+				throw new IOException(String.format("Only %d of %d rows were written!", rowsWritten, height));
+			
+			imageData.close();
+			writeChunk(CHUNK_IEND, new byte[0], 0);
+		}
+		finally
+		{
+			deflater.end();
+			output.close();
+		}
+	}
+	
+	
+	private void writeChunk(int type, byte[] data, int length) throws IOException
+	{
+		byte[] typeBytes = new byte[4];
+		writeInt(typeBytes, 0, type);
+		
+		crc.reset();
+		crc.update(typeBytes);
+		crc.update(data, 0, length);
+		
+		output.writeInt(length);
+		output.write(typeBytes);
+		output.write(data, 0, length);
+		output.writeInt((int) crc.getValue());
+	}
+	
+	
+	private static void writeInt(byte[] array, int offset, int value)
+	{
+		array[offset] = (byte) (value >>> 24);
+		array[offset + 1] = (byte) (value >>> 16);
+		array[offset + 2] = (byte) (value >>> 8);
+		array[offset + 3] = (byte) value;
+	}
+	
+	
+	/**
+	 * Collects the compressed image data and writes it in IDAT chunks.
+	 */
+	private class ChunkOutputStream extends OutputStream
+	{
+		private final byte[] buffer = new byte[IDAT_SIZE];
+		private int size;
+		
+		
+		@Override
+		public void write(int b) throws IOException
+		{
+			buffer[size++] = (byte) b;
+			if (size == buffer.length)
+				flushChunk();
+		}
+		
+		
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException
+		{
+			while (length > 0)
+			{
+				int count = Math.min(length, buffer.length - size);
+				System.arraycopy(bytes, offset, buffer, size, count);
+				size += count;
+				offset += count;
+				length -= count;
+				
+				if (size == buffer.length)
+					flushChunk();
+			}
+		}
+		
+		
+		private void flushChunk() throws IOException
+		{
+			if (size > 0)
+			{
+				writeChunk(CHUNK_IDAT, buffer, size);
+				size = 0;
+			}
+		}
+		
+		
+		@Override
+		public void close() throws IOException
+		{
+			flushChunk();
+		}
+	}
+}
@@ -31,11 +31,79 @@ import com.badlogic.gdx.math.Vector3;
 
 import komposten.tcs.backend.Style;
 import komposten.tcs.backend.Style.Colour;
+import komposten.tcs.backend.data.Shape;
 
 public class ShapeFactory
 {
+	/** The lowest number of segments used for a sphere's levels of detail. */
+	public static final int MIN_SPHERE_SEGMENTS = 6;
+	
 	private ShapeFactory() {}
 	
+	
+	/**
+	 * Creates a model for a point of the specified shape.
+	 * @param size The diameter of a sphere. Boxes and pyramids are made slightly
+	 *          smaller.
+	 * @param sphereSegments The number of segments to use for spheres.
+	 */
+	public static Model createShape(ModelBuilder modelBuilder, Shape shape, float size, int primitiveType, int sphereSegments)
+	{
+		switch (shape)
+		{
+			case BOX :
+				return createBox(modelBuilder, size*0.8f, primitiveType);
+			case PYRAMID :
+				return createTetrahedron(modelBuilder, size*0.9f, primitiveType);
+			case SPHERE :
+			default :
+				return createSphere(modelBuilder, size, primitiveType, sphereSegments);
+		}
+	}
+	
+	
+	/**
+	 * Creates one model per level of detail for the specified shape, from the
+	 * most to the least detailed.
+	 * @see #getDetailLevels(Shape, int)
+	 */
+	public static Model[] createShapeLevels(ModelBuilder modelBuilder, Shape shape, float size, int primitiveType, int maxSegments)
+	{
+		int[] levels = getDetailLevels(shape, maxSegments);
+		Model[] models = new Model[levels.length];
+		
+		for (int i = 0; i < levels.length; i++)
+			models[i] = createShape(modelBuilder, shape, size, primitiveType, levels[i]);
+		
+		return models;
+	}
+	
+	
+	/**
+	 * Gets the number of sphere segments for each level of detail of a shape.
+	 * Each level has half as many segments as the one before it, down to
+	 * {@link #MIN_SPHERE_SEGMENTS}. Boxes and pyramids are already as simple as
+	 * they can be, so they only have one level.
+	 * @param maxSegments The number of segments for the most detailed level.
+	 * @return The segment counts, from the most to the least detailed level.
+	 */
+	public static int[] getDetailLevels(Shape shape, int maxSegments)
+	{
+		if (shape != Shape.SPHERE)
+			return new int[] { maxSegments };
+		
+		int levelCount = 1;
+		for (int segments = maxSegments / 2; segments >= MIN_SPHERE_SEGMENTS; segments /= 2)
+			levelCount++;
+		
+		int[] levels = new int[levelCount];
+		levels[0] = maxSegments;
+		for (int i = 1; i < levelCount; i++)
+			levels[i] = levels[i-1] / 2;
+		
+		return levels;
+	}
+	
 
 	public static Model createSphere(ModelBuilder modelBuilder, float diameter, int primitiveType, int segments)
 	{
@@ -18,24 +18,24 @@
  */
 package komposten.tcs.util;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import com.badlogic.gdx.graphics.Color;
 import com.badlogic.gdx.graphics.g3d.Material;
-import com.badlogic.gdx.graphics.g3d.attributes.ColorAttribute;
 import com.badlogic.gdx.math.Vector3;
 
 
 public class TCSUtils
 {
-	private static Map<Color, Material> materials = new HashMap<>();
+	/** The maximum number of cached colour materials. */
+	private static final int MAX_MATERIALS = 4096;
+	private static final MaterialCache materials = new MaterialCache(MAX_MATERIALS);
 	
 	private TCSUtils() {}
 
 
 	/**
 	 * Creates a coordinate vector from the given colour metrics.
+	 * This method is thread-safe (unlike {@link Vector3#rotateRad(Vector3, float)},
+	 * which uses a shared temporary matrix).
 	 * 
 	 * @param theta
 	 * @param phi
@@ -48,15 +48,25 @@ public class TCSUtils
 		if (magnitude < 0)
 			throw new IllegalArgumentException("the magnitude must not be a negative value!");
 		
-		Vector3 coords = new Vector3(1, 0, 0);
-		coords.rotateRad(Vector3.Y, theta);
-		coords.rotateRad(new Vector3(-coords.z, 0, coords.x), phi);
-		coords.setLength(magnitude);
-		return coords;
+		// (1, 0, 0) rotated theta radians around the y axis and then phi radians
+		// towards the y axis.
+		double horizontal = magnitude * Math.cos(phi);
+		return new Vector3((float) (horizontal * Math.cos(theta)),
+				(float) (magnitude * Math.sin(phi)),
+				(float) (-horizontal * Math.sin(theta)));
 	}
 
 
 	public static Color getColourFromHex(String hexColour)
+	{
+		return new Color(getRgbaFromHex(hexColour));
+	}
+
+
+	/**
+	 * @return The colour as a packed RGBA8888 value.
+	 */
+	public static int getRgbaFromHex(String hexColour)
 	{
 		if (hexColour.startsWith("#"))
 		{
@@ -84,7 +94,7 @@ public class TCSUtils
 			{
 				int rgb = Integer.parseInt(hexColour.substring(0, 6), 16);
 				int alpha = Integer.parseInt(hexColour.substring(6), 16);
-				return new Color(rgb << 8 | alpha);
+				return rgb << 8 | alpha;
 			}
 		}
 		
@@ -92,8 +102,19 @@ public class TCSUtils
 	}
 
 
+	/**
+	 * Gets a shared material for the specified colour. This method is
+	 * thread-safe.
+	 * @see MaterialCache#get(Color)
+	 */
 	public static Material getMaterialForColour(Color colour)
 	{
-		return materials.computeIfAbsent(colour, c -> new Material(ColorAttribute.createDiffuse(colour)));
+		return materials.get(colour);
+	}
+
+
+	public static MaterialCache getMaterialCache()
+	{
+		return materials;
 	}
 }
@@ -0,0 +1,24 @@
+#version 330 core
+
+// Per-vertex attributes (the shape mesh).
+layout(location = 0) in vec3 a_position;
+layout(location = 1) in vec3 a_normal;
+
+// Per-instance attributes (the points).
+layout(location = 2) in vec3 a_offset;
+layout(location = 3) in vec4 a_colour;
+
+uniform mat4 u_projViewTrans;
+uniform vec3 u_ambientLight;
+uniform vec3 u_lightColour;
+uniform vec3 u_lightDirection;
+
+out vec4 v_colour;
+
+void main()
+{
+	// Same lighting as libGDX's default shader.
+	vec3 light = u_ambientLight + u_lightColour * clamp(dot(normalize(a_normal), -u_lightDirection), 0.0, 1.0);
+	v_colour = vec4(a_colour.rgb * light, a_colour.a);
+	gl_Position = u_projViewTrans * vec4(a_position + a_offset, 1.0);
+}
@@ -0,0 +1,14 @@
+#version 330 core
+
+flat in vec4 v_id;
+
+out vec4 fragColour;
+
+void main()
+{
+	vec2 coord = gl_PointCoord * 2.0 - 1.0;
+	if (dot(coord, coord) > 1.0)
+		discard;
+
+	fragColour = v_id;
+}
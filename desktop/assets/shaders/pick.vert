@@ -0,0 +1,17 @@
+#version 330 core
+
+// One vertex per point, with the point's ID packed into four bytes.
+layout(location = 0) in vec3 a_position;
+layout(location = 1) in vec4 a_id;
+
+uniform mat4 u_projViewTrans;
+uniform float u_pointScale;
+
+flat out vec4 v_id;
+
+void main()
+{
+	v_id = a_id;
+	gl_Position = u_projViewTrans * vec4(a_position, 1.0);
+	gl_PointSize = u_pointScale / gl_Position.w;
+}
@@ -0,0 +1,45 @@
+#version 330 core
+
+const int SHAPE_SPHERE = 0;
+const int SHAPE_BOX = 1;
+const int SHAPE_PYRAMID = 2;
+
+uniform int u_shape;
+uniform vec3 u_ambientLight;
+uniform vec3 u_lightColour;
+// The light direction in view space.
+uniform vec3 u_lightDirection;
+
+in vec4 v_colour;
+
+out vec4 fragColour;
+
+void main()
+{
+	// Position within the sprite, from (-1, -1) (bottom-left) to (1, 1).
+	vec2 d = vec2(gl_PointCoord.x * 2.0 - 1.0, 1.0 - gl_PointCoord.y * 2.0);
+	vec3 normal;
+
+	if (u_shape == SHAPE_SPHERE)
+	{
+		float r2 = dot(d, d);
+		if (r2 > 1.0)
+			discard;
+		normal = vec3(d, sqrt(1.0 - r2));
+	}
+	else if (u_shape == SHAPE_BOX)
+	{
+		// Flat front face with bevelled edges.
+		normal = normalize(vec3(d * step(0.8, abs(d)), 1.5));
+	}
+	else
+	{
+		if (d.y < -0.5 || d.y > 1.0 - abs(d.x) * 1.732)
+			discard;
+		normal = normalize(vec3(sign(d.x) * 0.6, 0.4, 1.0));
+	}
+
+	// Same lighting as libGDX's default shader.
+	vec3 light = u_ambientLight + u_lightColour * clamp(dot(normal, -u_lightDirection), 0.0, 1.0);
+	fragColour = vec4(v_colour.rgb * light, v_colour.a);
+}
@@ -0,0 +1,17 @@
+#version 330 core
+
+// One vertex per point.
+layout(location = 0) in vec3 a_position;
+layout(location = 1) in vec4 a_colour;
+
+uniform mat4 u_projViewTrans;
+uniform float u_pointScale;
+
+out vec4 v_colour;
+
+void main()
+{
+	v_colour = a_colour;
+	gl_Position = u_projViewTrans * vec4(a_position, 1.0);
+	gl_PointSize = u_pointScale / gl_Position.w;
+}
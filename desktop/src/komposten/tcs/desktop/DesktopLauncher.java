@@ -19,34 +19,214 @@
 package komposten.tcs.desktop;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.badlogic.gdx.Files.FileType;
 import com.badlogic.gdx.backends.lwjgl.LwjglApplication;
 import com.badlogic.gdx.backends.lwjgl.LwjglApplicationConfiguration;
 
+import komposten.tcs.BatchRenderer;
 import komposten.tcs.TetraColourSpace;
+import komposten.tcs.backend.BinaryGraphLoader;
+import komposten.tcs.backend.BinaryGraphWriter;
+import komposten.tcs.rendering.ScreenshotRenderer;
 
 
 public class DesktopLauncher
 {
 	public static void main(String[] arg)
 	{
-		if (arg.length > 0)
+		if (arg.length > 1 && arg[0].equals("-convert"))
 		{
-			File file = new File(arg[0]);
-			File outputDir = (arg.length > 1 ? new File(arg[1]) : null);
-			LwjglApplicationConfiguration config = new LwjglApplicationConfiguration();
-			config.useGL30 = true;
-			config.samples = 8;
-			config.addIcon("icon128.png", FileType.Internal);
-			config.addIcon("icon32.png", FileType.Internal);
-			new LwjglApplication(new TetraColourSpace(file, outputDir), config);
+			convert(arg);
+		}
+		else if (arg.length > 2 && arg[0].equals("-render"))
+		{
+			render(arg);
+		}
+		else if (arg.length > 0)
+		{
+			open(arg);
 		}
 		else
 		{
-			System.out.println("Usage: <filePath> [outputPath]");
-			System.out.println("\t<filePath> Path to an XML graph file.");
-			System.out.println("\t[outputPath] Path to a folder to save screenshots in.");
+			printUsage();
+		}
+	}
+
+
+	private static void printUsage()
+	{
+		System.out.println("Usage: [-watch] [-stream <source>] <filePath> [outputPath]");
+		System.out.println("       -convert <xmlPath> [binaryPath]");
+		System.out.println("       -render [-presets <list>] [-size <width>x<height>] [-supersample <n>] <outputPath> <filePath>...");
+		System.out.println("\t<filePath> Path to an XML or binary (.tcsb) graph file.");
+		System.out.println("\t[outputPath] Path to a folder to save screenshots in.");
+		System.out.println("\t-watch Reloads the graph file whenever it changes.");
+		System.out.println("\t-stream Adds points received from <source> while running: a port number to listen on");
+		System.out.println("\t\t(local connections only) or the path to a named pipe.");
+		System.out.println("\t-convert Converts an XML graph file to a binary graph file.");
+		System.out.println("\t\t[binaryPath] defaults to <xmlPath> with the extension .tcsb.");
+		System.out.println("\t-render Renders images of the graph files without user interaction.");
+		System.out.println("\t\t-presets A comma-separated list of camera presets (1-3) to render. Defaults to 1.");
+		System.out.println("\t\t-size The size of the images. Defaults to 1080x1080.");
+		System.out.println("\t\t-supersample The supersampling factor (1-" + ScreenshotRenderer.MAX_SUPERSAMPLE
+				+ "). Defaults to " + ScreenshotRenderer.DEFAULT_SUPERSAMPLE + ".");
+	}
+
+
+	private static void open(String[] arg)
+	{
+		boolean watch = false;
+		String streamSource = null;
+		int index = 0;
+		
+		for (; index < arg.length && arg[index].startsWith("-"); index++)
+		{
+			if (arg[index].equals("-watch"))
+			{
+				watch = true;
+			}
+			else if (arg[index].equals("-stream") && index < arg.length - 1)
+			{
+				streamSource = arg[++index];
+			}
+			else
+			{
+				System.out.println("Unknown option: " + arg[index]);
+				return;
+			}
+		}
+		
+		if (index == arg.length)
+		{
+			printUsage();
+			return;
+		}
+		
+		File file = new File(arg[index]);
+		File outputDir = (arg.length > index + 1 ? new File(arg[index + 1]) : null);
+		LwjglApplicationConfiguration config = new LwjglApplicationConfiguration();
+		config.useGL30 = true;
+		config.samples = 8;
+		config.addIcon("icon128.png", FileType.Internal);
+		config.addIcon("icon32.png", FileType.Internal);
+		new LwjglApplication(new TetraColourSpace(file, outputDir, watch, streamSource), config);
+	}
+
+
+	private static void render(String[] arg)
+	{
+		int[] presets = { 1 };
+		int width = ScreenshotRenderer.DEFAULT_WIDTH;
+		int height = ScreenshotRenderer.DEFAULT_WIDTH;
+		int supersample = ScreenshotRenderer.DEFAULT_SUPERSAMPLE;
+		int index = 1;
+		
+		try
+		{
+			for (; index < arg.length - 1 && arg[index].startsWith("-"); index += 2)
+			{
+				String value = arg[index + 1];
+				
+				if (arg[index].equals("-presets"))
+				{
+					String[] values = value.split(",");
+					presets = new int[values.length];
+					for (int i = 0; i < values.length; i++)
+						presets[i] = Integer.parseInt(values[i].trim());
+				}
+				else if (arg[index].equals("-size"))
+				{
+					String[] values = value.split("x");
+					width = Integer.parseInt(values[0]);
+					height = Integer.parseInt(values[1]);
+				}
+				else if (arg[index].equals("-supersample"))
+				{
+					supersample = Integer.parseInt(value);
+				}
+				else
+				{
+					System.out.println("Unknown option: " + arg[index]);
+					System.exit(1);
+				}
+			}
+		}
+		catch (NumberFormatException | ArrayIndexOutOfBoundsException e)
+		{
+			System.out.println("Invalid value for " + arg[index] + ": " + arg[index + 1]);
+			System.exit(1);
+		}
+		
+		if (arg.length - index < 2)
+		{
+			System.out.println("-render requires an output path and at least one file path!");
+			System.exit(1);
+		}
+		
+		File outputDir = new File(arg[index]);
+		List<File> files = new ArrayList<>();
+		for (int i = index + 1; i < arg.length; i++)
+			files.add(new File(arg[i]));
+		
+		LwjglApplicationConfiguration config = new LwjglApplicationConfiguration();
+		config.useGL30 = true;
+		config.width = 480;
+		config.height = 120;
+		config.resizable = false;
+		// Allows a software OpenGL implementation to be used on machines without
+		// a graphics card.
+		config.allowSoftwareMode = true;
+		// BatchRenderer exits with its own status when it is disposed.
+		config.forceExit = false;
+		config.addIcon("icon128.png", FileType.Internal);
+		config.addIcon("icon32.png", FileType.Internal);
+		
+		try
+		{
+			new LwjglApplication(new BatchRenderer(files, outputDir, presets, width, height, supersample), config);
+		}
+		catch (IllegalArgumentException e)
+		{
+			System.out.println(e.getMessage());
+			System.exit(1);
+		}
+	}
+
+
+	private static void convert(String[] arg)
+	{
+		File xmlFile = new File(arg[1]);
+		File binaryFile;
+		
+		if (arg.length > 2)
+		{
+			binaryFile = new File(arg[2]);
+		}
+		else
+		{
+			String name = xmlFile.getName().replaceFirst("\\.[^.]*$", "") + ".tcsb";
+			binaryFile = new File(xmlFile.getAbsoluteFile().getParentFile(), name);
+		}
+		
+		try
+		{
+			if (BinaryGraphLoader.isBinaryFile(xmlFile))
+			{
+				System.out.println(xmlFile.getPath() + " is already a binary graph file!");
+				System.exit(1);
+			}
+			
+			BinaryGraphWriter.convert(xmlFile, binaryFile);
+			System.out.println("Saved the binary graph to " + binaryFile.getPath());
+		}
+		catch (Exception e)
+		{
+			System.out.println("Could not convert " + xmlFile.getPath() + ": " + e.getMessage());
+			System.out.println("See log.txt for more information.");
+			System.exit(1);
 		}
 	}
 }